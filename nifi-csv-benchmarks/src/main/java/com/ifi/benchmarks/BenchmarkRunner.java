@@ -0,0 +1,30 @@
+package com.ifi.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line, always reporting throughput together with the allocation
+ * rate ({@link GCProfiler}) and the peak heap usage ({@link PeakMemoryProfiler}).
+ * <pre>
+ * mvn -Pbenchmarks -pl nifi-csv-processors,nifi-csv-benchmarks -am package
+ * java -jar nifi-csv-benchmarks/target/benchmarks.jar [JMH options, e.g. ConversionBenchmark -p cells=10000]
+ * </pre>
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .addProfiler(PeakMemoryProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,88 @@
+package com.ifi.benchmarks;
+
+import com.ifi.util.CSVConverter;
+import com.ifi.util.CSVConverterImp;
+import com.ifi.util.ConversionContext;
+import com.ifi.util.SheetOutput;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and conversion of generated workbooks, with the workbook loaded in memory and streamed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ConversionBenchmark {
+
+    @Param({"XLSX", "XLS"})
+    public Workbooks.Format format;
+
+    @Param({"TALL", "WIDE", "FORMULA", "STRING"})
+    public Workbooks.Shape shape;
+
+    @Param({"10000", "200000"})
+    public int cells;
+
+    private byte[] content;
+    private CSVConverter converter;
+    private Workbook workbook;
+
+    @Setup
+    public void setUp() throws Throwable {
+        content = Workbooks.create(format, shape, cells);
+        converter = new CSVConverterImp();
+        workbook = converter.createWorkbook(new ByteArrayInputStream(content));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        workbook.close();
+    }
+
+    @Benchmark
+    public int createWorkbook() throws Throwable {
+        try (Workbook parsed = converter.createWorkbook(new ByteArrayInputStream(content))) {
+            return parsed.getNumberOfSheets();
+        }
+    }
+
+    @Benchmark
+    public long toCSVFormat() throws IOException {
+        NullWriter writer = new NullWriter();
+        ConversionContext context = converter.createContext(workbook);
+        for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
+            converter.toCSVFormat(workbook.getSheetAt(i), writer, context);
+        }
+        return writer.getCount();
+    }
+
+    @Benchmark
+    public long streamToCSV() throws Throwable {
+        NullWriter writer = new NullWriter();
+        converter.toCSVFormat(new ByteArrayInputStream(content), null, new SheetOutput() {
+            @Override
+            public Writer startSheet(String sheetName) {
+                return writer;
+            }
+
+            @Override
+            public Writer nextPart(String sheetName) {
+                return writer;
+            }
+
+            @Override
+            public void endSheet(String sheetName, int rowCount) {
+            }
+        });
+        return writer.getCount();
+    }
+}
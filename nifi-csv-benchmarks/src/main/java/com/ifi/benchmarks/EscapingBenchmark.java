@@ -0,0 +1,66 @@
+package com.ifi.benchmarks;
+
+import com.ifi.util.CSVDialect;
+import com.ifi.util.CSVDialectWriter;
+import com.ifi.util.EscapeChar;
+import com.ifi.util.QuotePolicy;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing fields through {@link CSVDialectWriter}, reported per field.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EscapingBenchmark {
+    private static final int FIELD_COUNT = 1024;
+    private static final int FIELDS_PER_RECORD = 16;
+
+    @Param({"EXCEL_STYLE_ESCAPING", "UNIX_STYLE_ESCAPING"})
+    public EscapeChar escapeChar;
+
+    @Param({"MINIMAL", "NON_NUMERIC"})
+    public QuotePolicy quotePolicy;
+
+    @Param({"0", "10", "50"})
+    public int specialPercent;
+
+    private final String[] fields = new String[FIELD_COUNT];
+    private CSVDialect dialect;
+
+    @Setup
+    public void setUp() {
+        dialect = new CSVDialect.Builder().escapeChar(escapeChar).quotePolicy(quotePolicy).build();
+        Random random = new Random(42);
+        String[] specials = {",", "\"", "\n"};
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            String field = i % 3 == 0 ? String.valueOf(random.nextInt(1000000)) : "value " + random.nextInt(1000000) + " text";
+            if (random.nextInt(100) < specialPercent) {
+                int at = random.nextInt(field.length());
+                field = field.substring(0, at) + specials[random.nextInt(specials.length)] + field.substring(at);
+            }
+            fields[i] = field;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FIELD_COUNT)
+    public long writeFields() throws IOException {
+        NullWriter writer = new NullWriter();
+        CSVDialectWriter csvWriter = new CSVDialectWriter(dialect, writer);
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            csvWriter.writeField(fields[i]);
+            if (i % FIELDS_PER_RECORD == FIELDS_PER_RECORD - 1) {
+                csvWriter.endRecord();
+            }
+        }
+        return writer.getCount();
+    }
+}
@@ -0,0 +1,58 @@
+package com.ifi.benchmarks;
+
+import com.ifi.processors.csv.ExcelToCsv;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end runs of the processor through the NiFi mock framework, including the FlowFile content writes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn")
+public class ExcelToCsvBenchmark {
+
+    @Param({"XLSX", "XLS"})
+    public Workbooks.Format format;
+
+    @Param({"TALL", "STRING"})
+    public Workbooks.Shape shape;
+
+    @Param({"200000"})
+    public int cells;
+
+    @Param({"true", "false"})
+    public boolean streamingRead;
+
+    private byte[] content;
+    private TestRunner testRunner;
+    private boolean initialized;
+
+    @Setup
+    public void setUp() throws IOException {
+        content = Workbooks.create(format, shape, cells);
+        testRunner = TestRunners.newTestRunner(ExcelToCsv.class);
+        testRunner.setProperty(ExcelToCsv.STREAMING_READ, String.valueOf(streamingRead));
+    }
+
+    @TearDown
+    public void tearDown() {
+        testRunner.shutdown();
+    }
+
+    @Benchmark
+    public int convert() {
+        testRunner.clearTransferState();
+        testRunner.enqueue(content);
+        testRunner.run(1, false, !initialized);
+        initialized = true;
+        return testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS).size();
+    }
+}
@@ -0,0 +1,37 @@
+package com.ifi.benchmarks;
+
+import java.io.Writer;
+
+/**
+ * Writer that only counts the characters written to it, so the benchmarks measure the conversion and not the output.
+ */
+class NullWriter extends Writer {
+    private long count;
+
+    long getCount() {
+        return count;
+    }
+
+    @Override
+    public void write(int c) {
+        count++;
+    }
+
+    @Override
+    public void write(char[] buffer, int offset, int length) {
+        count += length;
+    }
+
+    @Override
+    public void write(String value, int offset, int length) {
+        count += length;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
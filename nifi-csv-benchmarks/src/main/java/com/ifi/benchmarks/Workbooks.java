@@ -0,0 +1,110 @@
+package com.ifi.benchmarks;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Generates the workbooks converted by the benchmarks.
+ */
+public final class Workbooks {
+
+    public enum Format {
+        XLS, XLSX
+    }
+
+    public enum Shape {
+        /** 10 columns of numbers, dates and short strings. */
+        TALL(10),
+        /** 200 columns of numbers, dates and short strings. */
+        WIDE(200),
+        /** 10 columns, every other one a formula on the column before it. */
+        FORMULA(10),
+        /** 10 columns of longer strings, some of which need quoting. */
+        STRING(10);
+
+        private final int columnCount;
+
+        Shape(int columnCount) {
+            this.columnCount = columnCount;
+        }
+    }
+
+    private Workbooks() {
+    }
+
+    /**
+     * Creates a workbook with one sheet of about cellCount cells.
+     */
+    public static byte[] create(Format format, Shape shape, int cellCount) throws IOException {
+        try (Workbook workbook = format == Format.XLS ? new HSSFWorkbook() : new XSSFWorkbook()) {
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd"));
+            Sheet sheet = workbook.createSheet(shape.name().toLowerCase());
+            int rowCount = Math.max(1, cellCount / shape.columnCount);
+            for (int i = 0; i < rowCount; i++) {
+                Row row = sheet.createRow(i);
+                for (int j = 0; j < shape.columnCount; j++) {
+                    fillCell(row.createCell(j), shape, dateStyle, i, j);
+                }
+            }
+            if (shape == Shape.FORMULA) {
+                workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+            }
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            workbook.write(outputStream);
+            return outputStream.toByteArray();
+        }
+    }
+
+    private static void fillCell(Cell cell, Shape shape, CellStyle dateStyle, int rowNum, int columnNum) {
+        if (shape == Shape.STRING) {
+            cell.setCellValue(createString(rowNum, columnNum));
+        } else if (shape == Shape.FORMULA) {
+            if (columnNum % 2 == 0) {
+                cell.setCellValue(rowNum * 0.25 + columnNum);
+            } else {
+                String previous = CellReference.convertNumToColString(columnNum - 1) + (rowNum + 1);
+                cell.setCellFormula("ROUND(" + previous + "*1.1+SQRT(" + previous + "),2)");
+            }
+        } else {
+            switch (columnNum % 4) {
+                case 0:
+                    cell.setCellValue(rowNum * 1.5 + columnNum);
+                    break;
+                case 1:
+                    cell.setCellValue(rowNum);
+                    break;
+                case 2:
+                    cell.setCellValue("item-" + rowNum);
+                    break;
+                default:
+                    cell.setCellValue(40000 + rowNum % 3000);
+                    cell.setCellStyle(dateStyle);
+                    break;
+            }
+        }
+    }
+
+    private static String createString(int rowNum, int columnNum) {
+        StringBuilder builder = new StringBuilder("customer ").append(rowNum).append(" order ").append(columnNum);
+        if ((rowNum + columnNum) % 5 == 0) {
+            builder.append(", priority");
+        }
+        if ((rowNum + columnNum) % 7 == 0) {
+            builder.append(" \"express\"");
+        }
+        if ((rowNum + columnNum) % 11 == 0) {
+            builder.append("\nsecond line");
+        }
+        return builder.toString();
+    }
+}
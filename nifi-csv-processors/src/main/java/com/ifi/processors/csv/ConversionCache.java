@@ -0,0 +1,190 @@
+package com.ifi.processors.csv;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Disk backed store of recorded conversions, keyed by the hash of the workbook content and of the conversion
+ * configuration. Once the entries take more than the maximum size the least recently used ones are deleted, and
+ * entries older than the maximum age are never returned. Entries left in the directory by an earlier run are reused.
+ */
+class ConversionCache {
+    static final String ENTRY_SUFFIX = ".entry";
+    static final String TEMP_SUFFIX = ".tmp";
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private final Path directory;
+    private final long maxSize;
+    private final long maxAgeMillis;
+    private final byte[] configuration;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    ConversionCache(Path directory, long maxSize, long maxAgeMillis, String configuration) throws IOException {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.maxAgeMillis = maxAgeMillis;
+        this.configuration = configuration.getBytes(StandardCharsets.UTF_8);
+        Files.createDirectories(directory);
+        List<Entry> existing = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+            for (Path path : paths) {
+                String fileName = path.getFileName().toString();
+                long modifiedMillis = Files.getLastModifiedTime(path).toMillis();
+                if (fileName.endsWith(ENTRY_SUFFIX)) {
+                    String key = fileName.substring(0, fileName.length() - ENTRY_SUFFIX.length());
+                    existing.add(new Entry(key, path, Files.size(path), modifiedMillis));
+                } else if (fileName.endsWith(TEMP_SUFFIX) && now - modifiedMillis > maxAgeMillis) {
+                    // left behind by a conversion that never completed
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+        existing.sort(Comparator.comparingLong(entry -> entry.createdMillis));
+        synchronized (this) {
+            for (Entry entry : existing) {
+                entries.put(entry.key, entry);
+                size += entry.size;
+            }
+            evict();
+        }
+    }
+
+    /**
+     * Computes the key of a workbook from its content and the configuration of the cache.
+     */
+    String key(InputStream content) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+        digest.update(configuration);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = content.read(buffer)) > 0) {
+            digest.update(buffer, 0, read);
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Opens the entry stored under key, or returns null when there is no such entry or it has expired.
+     */
+    synchronized InputStream open(String key) throws IOException {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (isExpired(entry, System.currentTimeMillis())) {
+            remove(entry);
+            return null;
+        }
+        try {
+            return new BufferedInputStream(Files.newInputStream(entry.path));
+        } catch (NoSuchFileException exception) {
+            entries.remove(key);
+            size -= entry.size;
+            return null;
+        }
+    }
+
+    /**
+     * Creates the file an entry is recorded to before it is stored with {@link #put(String, Path)}.
+     */
+    Path createTempFile() throws IOException {
+        return Files.createTempFile(directory, ExcelToCsv.TEMP_FILE_PREFIX, TEMP_SUFFIX);
+    }
+
+    synchronized void put(String key, Path tempFile) throws IOException {
+        Path path = directory.resolve(key + ENTRY_SUFFIX);
+        Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Entry entry = new Entry(key, path, Files.size(path), System.currentTimeMillis());
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            size -= previous.size;
+        }
+        size += entry.size;
+        evict();
+    }
+
+    synchronized void invalidate(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            remove(entry);
+        }
+    }
+
+    synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    private void evict() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (size > maxSize || isExpired(entry, now)) {
+                iterator.remove();
+                delete(entry);
+            }
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.createdMillis > maxAgeMillis;
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.key);
+        delete(entry);
+    }
+
+    private void delete(Entry entry) {
+        size -= entry.size;
+        try {
+            Files.deleteIfExists(entry.path);
+        } catch (IOException ignored) {
+            // still open on a platform that can't delete open files, the next run finds it again
+        }
+    }
+
+    private static class Entry {
+        private final String key;
+        private final Path path;
+        private final long size;
+        private final long createdMillis;
+
+        Entry(String key, Path path, long size, long createdMillis) {
+            this.key = key;
+            this.path = path;
+            this.size = size;
+            this.createdMillis = createdMillis;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.ifi.processors.csv;
+
+import com.ifi.util.SheetStatistics;
+import org.apache.nifi.processor.ProcessSession;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measurements of the conversion of one Excel FlowFile, published as counters, attributes and provenance details.
+ */
+class ConversionMetrics {
+    private long openNanos;
+    private long conversionNanos;
+    private long writeNanos;
+    private long rows;
+    private long cells;
+    private long formulasEvaluated;
+    private long bytesWritten;
+    private long uncompressedBytes;
+    private long memoryEstimate = -1;
+    private long memoryBudgetUsed;
+
+    void addOpenTime(long nanos) {
+        openNanos += nanos;
+    }
+
+    void addSheet(SheetStatistics statistics) {
+        conversionNanos += statistics.getConversionNanos();
+        rows += statistics.getRowCount();
+        cells += statistics.getCellCount();
+    }
+
+    void addWrite(long nanos, long bytes) {
+        writeNanos += nanos;
+        bytesWritten += bytes;
+    }
+
+    void addUncompressedBytes(long bytes) {
+        uncompressedBytes += bytes;
+    }
+
+    /**
+     * Records the memory reserved for the workbook and the memory budget in use once it was admitted.
+     */
+    void setMemory(long estimate, long budgetUsed) {
+        memoryEstimate = estimate;
+        memoryBudgetUsed = budgetUsed;
+    }
+
+    void addFormulasEvaluated(long count) {
+        formulasEvaluated += count;
+    }
+
+    long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(openNanos + conversionNanos);
+    }
+
+    void publishCounters(ProcessSession session) {
+        session.adjustCounter(ExcelToCsv.WORKBOOK_OPEN_TIME_COUNTER, TimeUnit.NANOSECONDS.toMicros(openNanos), false);
+        session.adjustCounter(ExcelToCsv.SHEET_CONVERSION_TIME_COUNTER, TimeUnit.NANOSECONDS.toMicros(conversionNanos), false);
+        session.adjustCounter(ExcelToCsv.OUTPUT_WRITE_TIME_COUNTER, TimeUnit.NANOSECONDS.toMicros(writeNanos), false);
+        session.adjustCounter(ExcelToCsv.ROWS_COUNTER, rows, false);
+        session.adjustCounter(ExcelToCsv.CELLS_COUNTER, cells, false);
+        session.adjustCounter(ExcelToCsv.FORMULAS_EVALUATED_COUNTER, formulasEvaluated, false);
+        session.adjustCounter(ExcelToCsv.BYTES_WRITTEN_COUNTER, bytesWritten, false);
+        if (uncompressedBytes > 0) {
+            session.adjustCounter(ExcelToCsv.UNCOMPRESSED_BYTES_COUNTER, uncompressedBytes, false);
+        }
+    }
+
+    Map<String, String> toAttributes() {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put(ExcelToCsv.OPEN_MILLIS_ATT, String.valueOf(TimeUnit.NANOSECONDS.toMillis(openNanos)));
+        attributes.put(ExcelToCsv.CONVERSION_MILLIS_ATT, String.valueOf(TimeUnit.NANOSECONDS.toMillis(conversionNanos)));
+        attributes.put(ExcelToCsv.WRITE_MILLIS_ATT, String.valueOf(TimeUnit.NANOSECONDS.toMillis(writeNanos)));
+        attributes.put(ExcelToCsv.ROWS_ATT, String.valueOf(rows));
+        attributes.put(ExcelToCsv.CELLS_ATT, String.valueOf(cells));
+        attributes.put(ExcelToCsv.FORMULAS_EVALUATED_ATT, String.valueOf(formulasEvaluated));
+        attributes.put(ExcelToCsv.BYTES_WRITTEN_ATT, String.valueOf(bytesWritten));
+        if (uncompressedBytes > 0) {
+            attributes.put(ExcelToCsv.UNCOMPRESSED_BYTES_ATT, String.valueOf(uncompressedBytes));
+        }
+        if (memoryEstimate >= 0) {
+            attributes.put(ExcelToCsv.MEMORY_ESTIMATE_ATT, String.valueOf(memoryEstimate));
+            attributes.put(ExcelToCsv.MEMORY_BUDGET_USED_ATT, String.valueOf(memoryBudgetUsed));
+        }
+        return attributes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("open %d ms, conversion %d ms, write %d ms, %d rows, %d cells, %d formulas evaluated, %d bytes",
+                TimeUnit.NANOSECONDS.toMillis(openNanos), TimeUnit.NANOSECONDS.toMillis(conversionNanos),
+                TimeUnit.NANOSECONDS.toMillis(writeNanos), rows, cells, formulasEvaluated, bytesWritten);
+    }
+}
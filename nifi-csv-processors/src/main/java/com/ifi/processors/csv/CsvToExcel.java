@@ -0,0 +1,338 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ifi.processors.csv;
+
+import com.ifi.util.CSVDialect;
+import com.ifi.util.CSVDialectReader;
+import com.ifi.util.EscapeChar;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.input.BOMInputStream;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
+import org.apache.nifi.annotation.behavior.WritesAttribute;
+import org.apache.nifi.annotation.behavior.WritesAttributes;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.processor.*;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.util.StringUtils;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+@Tags({"excel", "csv", "xlsx"})
+@CapabilityDescription("Processor to convert CSV to an Excel 2007 (.xlsx) workbook. Rows are written through a window of " +
+        "rows kept in memory, older rows are flushed to temporary files, and a new sheet is started once a sheet is full.")
+@SeeAlso(ExcelToCsv.class)
+@WritesAttributes({
+        @WritesAttribute(attribute = "row num", description = "Number of csv records written to the workbook"),
+        @WritesAttribute(attribute = "sheet.count", description = "Number of sheets in the workbook")})
+@SupportsBatching
+public class CsvToExcel extends AbstractProcessor {
+    private List<PropertyDescriptor> descriptors;
+    private Set<Relationship> relationships;
+
+    static final String XLSX_MIME_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+    static final String XLSX_EXTENSION = ".xlsx";
+    static final int MAX_ROWS = SpreadsheetVersion.EXCEL2007.getMaxRows();
+    // numbers without leading zeros, which are usually codes rather than amounts
+    static final Pattern NUMBER_PATTERN = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+    // significant digits a double, and so a numeric cell, keeps
+    static final int MAX_NUMBER_DIGITS = 15;
+
+    public static final PropertyDescriptor CHARACTER_SET = new PropertyDescriptor
+            .Builder().name("character-set")
+            .displayName("Character Set")
+            .description("Character set of the csv file. A UTF-8 byte order mark at the start of the file is skipped.")
+            .defaultValue(StandardCharsets.UTF_8.name())
+            .addValidator(StandardValidators.CHARACTER_SET_VALIDATOR)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor SHEET_NAME = new PropertyDescriptor
+            .Builder().name("sheet-name")
+            .displayName("Sheet Name")
+            .description("Name of the first sheet. Sheets started when a sheet is full are named after it with " +
+                    "the sheet number appended.")
+            .defaultValue("Sheet")
+            .addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor ROW_ACCESS_WINDOW = new PropertyDescriptor
+            .Builder().name("row-access-window")
+            .displayName("Row Access Window")
+            .description("Number of rows kept in memory while the workbook is written. Older rows are flushed to " +
+                    "temporary files, so the memory used does not grow with the size of the csv file.")
+            .defaultValue("100")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor COMPRESS_TEMP_FILES = new PropertyDescriptor
+            .Builder().name("compress-temp-files")
+            .displayName("Compress Temporary Files")
+            .description("Should the rows flushed to temporary files be gzip compressed. Saves disk space at the cost " +
+                    "of some processing time.")
+            .allowableValues("true", "false")
+            .defaultValue("true")
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor MAX_ROWS_PER_SHEET = new PropertyDescriptor
+            .Builder().name("max-rows-per-sheet")
+            .displayName("Max Rows Per Sheet")
+            .description("Maximum number of rows written to one sheet before a new sheet is started. Can't be more " +
+                    "than " + MAX_ROWS + ", the row limit of Excel.")
+            .defaultValue(String.valueOf(MAX_ROWS))
+            .addValidator(StandardValidators.createLongValidator(1, MAX_ROWS, true))
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor REPEAT_HEADER_ROW = new PropertyDescriptor
+            .Builder().name("repeat-header-row")
+            .displayName("Repeat Header Row")
+            .description("Should the first csv record be written again as the first row of every sheet started when " +
+                    "a sheet is full. The header row counts in Max Rows Per Sheet.")
+            .allowableValues("true", "false")
+            .defaultValue("false")
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor TYPED_CELLS = new PropertyDescriptor
+            .Builder().name("typed-cells")
+            .displayName("Typed Cells")
+            .description("Should numbers and the values TRUE and FALSE be written as numeric and boolean cells. " +
+                    "Numbers with leading zeros or more than " + MAX_NUMBER_DIGITS + " digits, which can't be kept " +
+                    "as numbers without changing them, are written as text. When false every value is written as text.")
+            .allowableValues("true", "false")
+            .defaultValue("true")
+            .required(true)
+            .build();
+
+    public static final Relationship SUCCESS = new Relationship.Builder()
+            .name("success")
+            .description("Excel workbooks converted from csv are transferred to this relationship")
+            .build();
+
+    public static final Relationship FAILURE = new Relationship.Builder()
+            .name("failure")
+            .description("CSV files that can't be converted to Excel are transferred to this relationship")
+            .build();
+
+    public static final Relationship ORIGINAL = new Relationship.Builder()
+            .name("original")
+            .description("Original CSV Files are transferred to this relationship")
+            .build();
+
+    private volatile CSVDialect dialect;
+    private volatile Charset charset;
+    private volatile String sheetName;
+    private volatile int rowAccessWindow;
+    private volatile boolean compressTempFiles;
+    private volatile int maxRowsPerSheet;
+    private volatile boolean repeatHeaderRow;
+    private volatile boolean typedCells;
+
+    @Override
+    protected void init(final ProcessorInitializationContext context) {
+        final List<PropertyDescriptor> descriptors = new ArrayList<>();
+        descriptors.add(CHARACTER_SET);
+        descriptors.add(ExcelToCsv.ESCAPE_CONVENTION);
+        descriptors.add(ExcelToCsv.DELIMITER);
+        descriptors.add(ExcelToCsv.QUOTE_CHARACTER);
+        descriptors.add(ExcelToCsv.ESCAPE_CHARACTER);
+        descriptors.add(SHEET_NAME);
+        descriptors.add(ROW_ACCESS_WINDOW);
+        descriptors.add(COMPRESS_TEMP_FILES);
+        descriptors.add(MAX_ROWS_PER_SHEET);
+        descriptors.add(REPEAT_HEADER_ROW);
+        descriptors.add(TYPED_CELLS);
+        this.descriptors = Collections.unmodifiableList(descriptors);
+
+        final Set<Relationship> relationships = new HashSet<>();
+        relationships.add(SUCCESS);
+        relationships.add(FAILURE);
+        relationships.add(ORIGINAL);
+        this.relationships = Collections.unmodifiableSet(relationships);
+    }
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return this.relationships;
+    }
+
+    @Override
+    public final List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return descriptors;
+    }
+
+    @OnScheduled
+    public void onScheduled(final ProcessContext context) {
+        EscapeChar escapeChar = EscapeChar.EXCEL_STYLE_ESCAPING;
+        if (context.getProperty(ExcelToCsv.ESCAPE_CONVENTION).getValue().equals(ExcelToCsv.UNIX_SYSTEM)) {
+            escapeChar = EscapeChar.UNIX_STYLE_ESCAPING;
+        }
+        dialect = new CSVDialect.Builder()
+                .delimiter(context.getProperty(ExcelToCsv.DELIMITER).getValue())
+                .escapeChar(escapeChar)
+                .quoteCharacter(context.getProperty(ExcelToCsv.QUOTE_CHARACTER).getValue().charAt(0))
+                .escapeCharacter(context.getProperty(ExcelToCsv.ESCAPE_CHARACTER).getValue().charAt(0))
+                .build();
+        charset = Charset.forName(context.getProperty(CHARACTER_SET).getValue());
+        sheetName = context.getProperty(SHEET_NAME).getValue();
+        rowAccessWindow = context.getProperty(ROW_ACCESS_WINDOW).asInteger();
+        compressTempFiles = context.getProperty(COMPRESS_TEMP_FILES).asBoolean();
+        maxRowsPerSheet = context.getProperty(MAX_ROWS_PER_SHEET).asInteger();
+        repeatHeaderRow = context.getProperty(REPEAT_HEADER_ROW).asBoolean();
+        typedCells = context.getProperty(TYPED_CELLS).asBoolean();
+    }
+
+    @Override
+    public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
+        final FlowFile csvFile = session.get();
+        if (csvFile == null) {
+            return;
+        }
+
+        FlowFile excelFile = session.create(csvFile);
+        SXSSFWorkbook workbook = new SXSSFWorkbook(null, rowAccessWindow, compressTempFiles, false);
+        try {
+            final long[] recordCount = new long[1];
+            session.read(csvFile, inputStream -> recordCount[0] = writeSheets(inputStream, workbook));
+            excelFile = session.write(excelFile, workbook::write);
+
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put(ExcelToCsv.ROW_NUM_ATT, String.valueOf(recordCount[0]));
+            attributes.put(ExcelToCsv.SHEET_COUNT_ATT, String.valueOf(workbook.getNumberOfSheets()));
+            attributes.put(CoreAttributes.MIME_TYPE.key(), XLSX_MIME_TYPE);
+            String sourceFileName = csvFile.getAttribute(CoreAttributes.FILENAME.key());
+            attributes.put(CoreAttributes.FILENAME.key(), StringUtils.isNotEmpty(sourceFileName) ?
+                    FilenameUtils.removeExtension(sourceFileName) + XLSX_EXTENSION :
+                    excelFile.getAttribute(CoreAttributes.UUID.key()) + XLSX_EXTENSION);
+            excelFile = session.putAllAttributes(excelFile, attributes);
+            session.transfer(excelFile, SUCCESS);
+            session.transfer(csvFile, ORIGINAL);
+
+        } catch (RuntimeException exception) {
+            session.remove(excelFile);
+            FlowFile failedFlowFile = session.putAttribute(csvFile,
+                    CsvToExcel.class.getName() + ".error", String.valueOf(exception.getMessage()));
+            session.transfer(failedFlowFile, FAILURE);
+            getLogger().error("Failed to convert incoming csv document. " + exception.getMessage(), exception);
+        } finally {
+            workbook.dispose();
+            try {
+                workbook.close();
+            } catch (IOException exception) {
+                getLogger().warn("Failed to close workbook", exception);
+            }
+        }
+    }
+
+    /**
+     * Writes the csv records to the workbook, starting a new sheet when the current one is full, and returns the
+     * number of records written.
+     */
+    private long writeSheets(InputStream inputStream, SXSSFWorkbook workbook) throws IOException {
+        if (charset.equals(StandardCharsets.UTF_8)) {
+            inputStream = new BOMInputStream(inputStream);
+        }
+        CSVDialectReader reader = new CSVDialectReader(dialect, new InputStreamReader(inputStream, charset));
+        List<String> fields = new ArrayList<>();
+        List<String> header = null;
+        Sheet sheet = workbook.createSheet(WorkbookUtil.createSafeSheetName(sheetName));
+        int rowIndex = 0;
+        while (reader.readRecord(fields)) {
+            if (rowIndex >= maxRowsPerSheet) {
+                sheet = workbook.createSheet(getRolledSheetName(workbook.getNumberOfSheets() + 1));
+                rowIndex = 0;
+                if (header != null && maxRowsPerSheet > 1) {
+                    writeRow(sheet.createRow(rowIndex++), header);
+                }
+            }
+            if (repeatHeaderRow && header == null) {
+                header = new ArrayList<>(fields);
+            }
+            writeRow(sheet.createRow(rowIndex++), fields);
+        }
+        return reader.getRecordCount();
+    }
+
+    private void writeRow(Row row, List<String> fields) {
+        for (int i = 0; i < fields.size(); i++) {
+            String value = fields.get(i);
+            if (value.isEmpty()) {
+                continue;
+            }
+            Cell cell = row.createCell(i);
+            Double number;
+            if (!typedCells) {
+                cell.setCellValue(value);
+            } else if (value.equals("TRUE") || value.equals("FALSE")) {
+                cell.setCellValue(value.equals("TRUE"));
+            } else if ((number = toNumber(value)) != null) {
+                cell.setCellValue(number);
+            } else {
+                cell.setCellValue(value);
+            }
+        }
+    }
+
+    /**
+     * Returns the number written in the value, or null when the value isn't a number that a numeric cell keeps as is.
+     */
+    static Double toNumber(String value) {
+        Matcher matcher = NUMBER_PATTERN.matcher(value);
+        if (!matcher.matches()) {
+            return null;
+        }
+        int digits = matcher.end(1) - matcher.start(1);
+        if (matcher.group(2) != null) {
+            digits += matcher.group(2).length() - 1;
+        }
+        if (digits > MAX_NUMBER_DIGITS) {
+            return null;
+        }
+        double number = Double.parseDouble(value);
+        return Double.isInfinite(number) ? null : number;
+    }
+
+    private String getRolledSheetName(int sheetNumber) {
+        String suffix = ExcelToCsv.SHEET_NAME_SEPARATOR + sheetNumber;
+        String baseName = WorkbookUtil.createSafeSheetName(sheetName);
+        int maxLength = 31 - suffix.length();
+        return (baseName.length() > maxLength ? baseName.substring(0, maxLength) : baseName) + suffix;
+    }
+}
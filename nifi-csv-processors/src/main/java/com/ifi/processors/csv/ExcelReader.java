@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ifi.processors.csv;
+
+import com.ifi.util.CSVConverter;
+import com.ifi.util.CSVConverterImp;
+import com.ifi.util.CSVDialect;
+import com.ifi.util.CellProjection;
+import com.ifi.util.SheetSelector;
+import com.ifi.util.ValueFormat;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.SeeAlso;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.controller.AbstractControllerService;
+import org.apache.nifi.controller.ConfigurationContext;
+import org.apache.nifi.logging.ComponentLog;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.serialization.MalformedRecordException;
+import org.apache.nifi.serialization.RecordReader;
+import org.apache.nifi.serialization.RecordReaderFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+@Tags({"excel", "xls", "xlsx", "record", "reader"})
+@CapabilityDescription("Reads the rows of Excel .xls and .xlsx workbooks as records, typed after their values, so record " +
+        "processors read workbooks without a conversion to csv. The schema is inferred from the header row and a sample " +
+        "of the rows. The selected sheets are streamed to a temporary file with their raw values, without loading the " +
+        "workbook in memory, and the records are read from it one at a time. Formulas are read as their cached result.")
+@SeeAlso(ExcelToCsv.class)
+public class ExcelReader extends AbstractControllerService implements RecordReaderFactory {
+
+    public static final PropertyDescriptor FIRST_ROW_IS_HEADER = new PropertyDescriptor
+            .Builder().name("first-row-is-header")
+            .displayName("Treat First Row as Header")
+            .description("Should the first row of each sheet be read as the names of the fields instead of as a record. " +
+                    "The names are taken from the first selected sheet. Columns without a name, or every column when " +
+                    "there is no header row, are named after their column letter.")
+            .allowableValues("true", "false")
+            .defaultValue("true")
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor SCHEMA_INFERENCE_SAMPLE_SIZE = new PropertyDescriptor
+            .Builder().name("schema-inference-sample-size")
+            .displayName("Schema Inference Sample Size")
+            .description("Number of rows read to infer the type of each field. A field whose sampled cells are all whole " +
+                    "numbers is a long, all numbers a double, all dates a timestamp and all booleans a boolean, and a " +
+                    "string otherwise. Text cells that read as one of these values are typed the same way. The values " +
+                    "of the following rows are converted to the inferred types, and a record with a value that can't " +
+                    "be converted, such as a fraction in a long field, fails to be read.")
+            .defaultValue("100")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .required(true)
+            .build();
+
+    // dialect of the temporary file the sheets are streamed to
+    private static final CSVDialect DIALECT = new CSVDialect.Builder().build();
+    private static final List<PropertyDescriptor> PROPERTIES;
+
+    static {
+        List<PropertyDescriptor> properties = new ArrayList<>();
+        properties.add(ExcelToCsv.EXTRACT_SHEETS);
+        properties.add(ExcelToCsv.SHEET_INDEXES);
+        properties.add(ExcelToCsv.SHEET_NAME_PATTERN);
+        properties.add(FIRST_ROW_IS_HEADER);
+        properties.add(SCHEMA_INFERENCE_SAMPLE_SIZE);
+        PROPERTIES = Collections.unmodifiableList(properties);
+    }
+
+    private volatile CSVConverter converter;
+    private volatile SheetSelector sheetSelector;
+    private volatile boolean firstRowIsHeader;
+    private volatile int sampleSize;
+
+    @Override
+    protected List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return PROPERTIES;
+    }
+
+    @OnEnabled
+    public void onEnabled(final ConfigurationContext context) {
+        converter = new CSVConverterImp.Builder()
+                .dialect(DIALECT)
+                .valueFormat(ValueFormat.RAW)
+                .projection(new CellProjection.Builder().skipBlankRows(true).build())
+                .build();
+        sheetSelector = ExcelToCsv.createSheetSelector(context);
+        firstRowIsHeader = context.getProperty(FIRST_ROW_IS_HEADER).asBoolean();
+        sampleSize = context.getProperty(SCHEMA_INFERENCE_SAMPLE_SIZE).asInteger();
+    }
+
+    @Override
+    public RecordReader createRecordReader(Map<String, String> variables, InputStream in, long inputLength, ComponentLog logger)
+            throws MalformedRecordException, IOException {
+        return new ExcelRecordReader(converter, DIALECT, sheetSelector, in, firstRowIsHeader, sampleSize);
+    }
+}
@@ -0,0 +1,290 @@
+package com.ifi.processors.csv;
+
+import com.ifi.util.CSVConverter;
+import com.ifi.util.CSVDialect;
+import com.ifi.util.CSVDialectReader;
+import com.ifi.util.SheetOutput;
+import com.ifi.util.SheetSelector;
+import com.ifi.util.SheetStatistics;
+import com.ifi.util.exception.InvalidDocumentException;
+import org.apache.nifi.serialization.MalformedRecordException;
+import org.apache.nifi.serialization.RecordReader;
+import org.apache.nifi.serialization.SimpleRecordSchema;
+import org.apache.nifi.serialization.record.DataType;
+import org.apache.nifi.serialization.record.MapRecord;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordField;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.RecordSchema;
+import org.apache.nifi.serialization.record.util.DataTypeUtils;
+import org.apache.nifi.serialization.record.util.IllegalTypeConversionException;
+import org.apache.poi.EncryptedDocumentException;
+import org.apache.poi.hssf.OldExcelFormatException;
+import org.apache.poi.ss.util.CellReference;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the rows of the selected sheets of a workbook as records. The workbook is spilled to a temporary file and
+ * streamed by the converter, with raw values and without blank rows, to a temporary csv file that the records are
+ * then read from one at a time. The type of a value is read back from its raw text, so a text cell that reads as a
+ * number, a boolean or an ISO-8601 date is typed as one. The rows sampled to infer the schema are kept until their
+ * records are read.
+ */
+class ExcelRecordReader implements RecordReader {
+    // whole numbers beyond 2^53 aren't exact in a double
+    private static final double MAX_EXACT_LONG = 9007199254740992d;
+    // dates and date times as written by ValueFormat.RAW
+    private static final Pattern DATE_PATTERN = Pattern.compile("\\d{4}-\\d{2}-\\d{2}");
+    private static final Pattern DATE_TIME_PATTERN = Pattern.compile("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}(:\\d{2}(\\.\\d+)?)?");
+    private static final String CSV_SUFFIX = ".csv";
+
+    private final boolean firstRowIsHeader;
+    private final Path csvFile;
+    private final BufferedReader csvFileReader;
+    private final CSVDialectReader csvReader;
+    private final Iterator<Long> sheetRowCounts;
+    private final Deque<List<String>> sampledRows = new ArrayDeque<>();
+    private final RecordSchema schema;
+    private long sheetRowsLeft;
+    private List<String> header;
+    private long recordCount;
+
+    ExcelRecordReader(CSVConverter converter, CSVDialect dialect, SheetSelector selector, InputStream inputStream,
+                      boolean firstRowIsHeader, int sampleSize) throws IOException, MalformedRecordException {
+        this.firstRowIsHeader = firstRowIsHeader;
+        List<Long> rowCounts = new ArrayList<>();
+        csvFile = Files.createTempFile(ExcelToCsv.TEMP_FILE_PREFIX, CSV_SUFFIX);
+        try {
+            convertWorkbook(converter, selector, inputStream, rowCounts);
+            csvFileReader = Files.newBufferedReader(csvFile, StandardCharsets.UTF_8);
+        } catch (IOException | MalformedRecordException | RuntimeException exception) {
+            Files.deleteIfExists(csvFile);
+            throw exception;
+        }
+        try {
+            csvReader = new CSVDialectReader(dialect, csvFileReader);
+            sheetRowCounts = rowCounts.iterator();
+            List<String> values;
+            while (sampledRows.size() < sampleSize && (values = nextRow()) != null) {
+                sampledRows.add(values);
+            }
+            schema = inferSchema();
+        } catch (IOException | RuntimeException exception) {
+            close();
+            throw exception;
+        }
+    }
+
+    @Override
+    public Record nextRecord(boolean coerceTypes, boolean dropUnknownFields) throws IOException, MalformedRecordException {
+        List<String> values = sampledRows.isEmpty() ? nextRow() : sampledRows.poll();
+        if (values == null) {
+            return null;
+        }
+        recordCount++;
+        Map<String, Object> fieldValues = new LinkedHashMap<>();
+        for (int i = 0; i < schema.getFieldCount(); i++) {
+            RecordField field = schema.getField(i);
+            Object value = i < values.size() ? toRecordValue(values.get(i)) : null;
+            if (value != null && coerceTypes) {
+                // a fraction would be truncated to the whole number of a long field
+                if (value instanceof Double && field.getDataType().equals(RecordFieldType.LONG.getDataType())) {
+                    throw new MalformedRecordException("Cannot read the value " + value + " of field " +
+                            field.getFieldName() + " in record " + recordCount + " as " + field.getDataType() +
+                            " without losing its fraction");
+                }
+                try {
+                    value = DataTypeUtils.convertType(value, field.getDataType(), field.getFieldName());
+                } catch (IllegalTypeConversionException | NumberFormatException exception) {
+                    throw new MalformedRecordException("Cannot read the value " + value + " of field " +
+                            field.getFieldName() + " in record " + recordCount + " as " + field.getDataType(), exception);
+                }
+            }
+            fieldValues.put(field.getFieldName(), value);
+        }
+        return new MapRecord(schema, fieldValues);
+    }
+
+    @Override
+    public RecordSchema getSchema() {
+        return schema;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            csvFileReader.close();
+        } finally {
+            Files.deleteIfExists(csvFile);
+        }
+    }
+
+    /**
+     * Streams the selected sheets to the csv file, from a copy of the workbook in a temporary file so that a .xlsx
+     * package isn't buffered in memory, and collects the number of rows written for each sheet.
+     */
+    private void convertWorkbook(CSVConverter converter, SheetSelector selector, InputStream inputStream,
+                                 List<Long> rowCounts) throws IOException, MalformedRecordException {
+        Path workbookFile = Files.createTempFile(ExcelToCsv.TEMP_FILE_PREFIX, ExcelToCsv.TEMP_FILE_SUFFIX);
+        try (Writer writer = Files.newBufferedWriter(csvFile, StandardCharsets.UTF_8)) {
+            Files.copy(inputStream, workbookFile, StandardCopyOption.REPLACE_EXISTING);
+            converter.toCSVFormat(workbookFile.toFile(), selector, new SheetOutput() {
+                @Override
+                public Writer startSheet(String sheetName) {
+                    return writer;
+                }
+
+                @Override
+                public Writer nextPart(String sheetName) {
+                    return writer;
+                }
+
+                @Override
+                public void sheetConverted(String sheetName, SheetStatistics statistics) {
+                    rowCounts.add(statistics.getRowCount());
+                }
+
+                @Override
+                public void endSheet(String sheetName, int rowCount) {
+                }
+            }, null);
+        } catch (InvalidDocumentException | EncryptedDocumentException | OldExcelFormatException exception) {
+            throw new MalformedRecordException(ExcelToCsv.NOT_A_WORKBOOK_MESSAGE, exception);
+        } finally {
+            Files.deleteIfExists(workbookFile);
+        }
+    }
+
+    /**
+     * Reads the values of the next row of the selected sheets, or returns null once every sheet has been read.
+     */
+    private List<String> nextRow() throws IOException {
+        while (sheetRowsLeft == 0) {
+            if (!sheetRowCounts.hasNext()) {
+                return null;
+            }
+            sheetRowsLeft = sheetRowCounts.next();
+            if (firstRowIsHeader && sheetRowsLeft > 0) {
+                List<String> headerRow = readRow();
+                if (header == null) {
+                    header = headerRow;
+                }
+            }
+        }
+        return readRow();
+    }
+
+    private List<String> readRow() throws IOException {
+        List<String> values = new ArrayList<>();
+        if (!csvReader.readRecord(values)) {
+            throw new IOException("The converted workbook ended before the last row of its sheets");
+        }
+        sheetRowsLeft--;
+        return values;
+    }
+
+    private RecordSchema inferSchema() {
+        List<DataType> dataTypes = new ArrayList<>();
+        for (List<String> values : sampledRows) {
+            for (int i = 0; i < values.size(); i++) {
+                if (i == dataTypes.size()) {
+                    dataTypes.add(null);
+                }
+                DataType dataType = getDataType(toRecordValue(values.get(i)));
+                if (dataTypes.get(i) == null) {
+                    dataTypes.set(i, dataType);
+                } else if (dataType != null && !dataType.equals(dataTypes.get(i))) {
+                    dataTypes.set(i, getWiderType(dataTypes.get(i), dataType));
+                }
+            }
+        }
+        int fieldCount = Math.max(dataTypes.size(), header != null ? header.size() : 0);
+        List<RecordField> fields = new ArrayList<>();
+        Set<String> fieldNames = new HashSet<>();
+        for (int i = 0; i < fieldCount; i++) {
+            String fieldName = header != null && i < header.size() ? header.get(i).trim() : "";
+            if (fieldName.isEmpty() || fieldNames.contains(fieldName)) {
+                fieldName = CellReference.convertNumToColString(i);
+            }
+            fieldNames.add(fieldName);
+            DataType dataType = i < dataTypes.size() && dataTypes.get(i) != null ? dataTypes.get(i) : RecordFieldType.STRING.getDataType();
+            fields.add(new RecordField(fieldName, dataType));
+        }
+        return new SimpleRecordSchema(fields);
+    }
+
+    /**
+     * Converts the raw text of a cell to the value of a record field: whole numbers to a Long, other numbers to a
+     * Double, booleans to a Boolean and dates to a Timestamp. An empty cell is null.
+     */
+    private static Object toRecordValue(String text) {
+        if (text.isEmpty()) {
+            return null;
+        }
+        Double number = CsvToExcel.toNumber(text);
+        if (number != null) {
+            if (number == Math.rint(number) && Math.abs(number) <= MAX_EXACT_LONG) {
+                return number.longValue();
+            }
+            return number;
+        } else if ("true".equals(text) || "false".equals(text)) {
+            return Boolean.valueOf(text);
+        }
+        try {
+            if (DATE_PATTERN.matcher(text).matches()) {
+                return Timestamp.valueOf(LocalDate.parse(text).atStartOfDay());
+            } else if (DATE_TIME_PATTERN.matcher(text).matches()) {
+                return Timestamp.valueOf(LocalDateTime.parse(text));
+            }
+        } catch (DateTimeParseException exception) {
+            // not a valid date, kept as text
+        }
+        return text;
+    }
+
+    private static DataType getDataType(Object value) {
+        if (value instanceof Long) {
+            return RecordFieldType.LONG.getDataType();
+        } else if (value instanceof Double) {
+            return RecordFieldType.DOUBLE.getDataType();
+        } else if (value instanceof Boolean) {
+            return RecordFieldType.BOOLEAN.getDataType();
+        } else if (value instanceof Timestamp) {
+            return RecordFieldType.TIMESTAMP.getDataType();
+        } else if (value != null) {
+            return RecordFieldType.STRING.getDataType();
+        }
+        return null;
+    }
+
+    private static DataType getWiderType(DataType first, DataType second) {
+        DataType longType = RecordFieldType.LONG.getDataType();
+        DataType doubleType = RecordFieldType.DOUBLE.getDataType();
+        if ((first.equals(longType) || first.equals(doubleType)) && (second.equals(longType) || second.equals(doubleType))) {
+            return doubleType;
+        }
+        return RecordFieldType.STRING.getDataType();
+    }
+}
@@ -16,20 +16,44 @@
  */
 package com.ifi.processors.csv;
 
+import com.ifi.util.BufferedEncodingWriter;
 import com.ifi.util.CSVConverter;
 import com.ifi.util.CSVConverterImp;
+import com.ifi.util.CSVDialect;
+import com.ifi.util.CSVDialectWriter;
+import com.ifi.util.CellProjection;
+import com.ifi.util.ConversionContext;
 import com.ifi.util.EscapeChar;
+import com.ifi.util.FormulaEvaluation;
+import com.ifi.util.QuotePolicy;
+import com.ifi.util.ValueFormat;
+import com.ifi.util.SheetInfo;
+import com.ifi.util.SheetOutput;
+import com.ifi.util.SheetSelector;
+import com.ifi.util.SheetStatistics;
 import com.ifi.util.exception.InvalidDocumentException;
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.nifi.annotation.behavior.ReadsAttribute;
 import org.apache.nifi.annotation.behavior.ReadsAttributes;
+import org.apache.nifi.annotation.behavior.SupportsBatching;
 import org.apache.nifi.annotation.behavior.WritesAttribute;
 import org.apache.nifi.annotation.behavior.WritesAttributes;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.SeeAlso;
 import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.context.PropertyContext;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.flowfile.attributes.CoreAttributes;
 import org.apache.nifi.logging.ComponentLog;
@@ -39,15 +63,34 @@ import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.util.StringUtils;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellReference;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 @Tags({"excel, csv"})
 @CapabilityDescription("Processor to convert Excel to CSV")
 @SeeAlso()
 @ReadsAttributes({@ReadsAttribute(attribute = "", description = "")})
 @WritesAttributes({@WritesAttribute(attribute = "", description = "")})
+@SupportsBatching
 public class ExcelToCsv extends AbstractProcessor {
     private List<PropertyDescriptor> descriptors;
     private Set<Relationship> relationships;
@@ -55,19 +98,109 @@ public class ExcelToCsv extends AbstractProcessor {
     static final String UNIX_SYSTEM = "Unix";
     static final String WINDOWS_SYSTEM = "Windows";
     static final String SHEET_NAME_DELIMITER = ",";
+    static final String SHEET_INDEX_DELIMITER = ",";
+    static final String SHEET_INDEX_RANGE_SEPARATOR = "-";
+    static final String COLUMN_DELIMITER = ",";
+    static final String COLUMN_RANGE_SEPARATOR = ":";
+    static final String COMPRESSION_NONE = "None";
+    static final String COMPRESSION_GZIP = "gzip";
+    static final String COMPRESSION_LZ4 = "lz4";
+    static final String COMPRESSION_SNAPPY = "snappy";
+    static final String SHEET_OUTPUT_FLOWFILES = "FlowFile per sheet";
+    static final String SHEET_OUTPUT_MERGED = "Merged CSV";
+    static final String SHEET_OUTPUT_TAR = "Tar";
+    static final String SHEET_OUTPUT_ZIP = "Zip";
+    static final String OUTPUT_CSV = "CSV";
+    static final String OUTPUT_MANIFEST = "Manifest";
+    static final String MANIFEST_SUFFIX = "manifest";
+    static final String[] MANIFEST_HEADER = {"sheet index", "sheet name", "dimension", "row count"};
+    static final String QUOTE_MINIMAL = "Minimal";
+    static final String QUOTE_ALL = "All";
+    static final String QUOTE_NON_NUMERIC = "Non Numeric";
+    static final String LF_SEPARATOR = "LF";
+    static final String CRLF_SEPARATOR = "CRLF";
+    static final String FORMULA_CACHED = "Cached";
+    static final String FORMULA_EVALUATE = "Evaluate";
+    static final String FORMULA_EVALUATE_IF_NO_CACHED_VALUE = "Evaluate if no cached value";
+    static final String FORMULAS_EVALUATED_COUNTER = "Formulas Evaluated";
+    static final String WORKBOOK_OPEN_TIME_COUNTER = "Workbook Open Time (micros)";
+    static final String SHEET_CONVERSION_TIME_COUNTER = "Sheet Conversion Time (micros)";
+    static final String OUTPUT_WRITE_TIME_COUNTER = "Output Write Time (micros)";
+    static final String ROWS_COUNTER = "Rows Converted";
+    static final String CELLS_COUNTER = "Cells Converted";
+    static final String BYTES_WRITTEN_COUNTER = "Bytes Written";
+    static final String UNCOMPRESSED_BYTES_COUNTER = "Uncompressed Bytes Written";
+    static final String CACHE_HITS_COUNTER = "Conversion Cache Hits";
+    static final String CACHE_MISSES_COUNTER = "Conversion Cache Misses";
+    static final String CACHE_FORMAT_VERSION = "2";
+    static final String MEMORY_DEFERRED_COUNTER = "Workbooks Deferred For Memory";
+    static final String LOW_MEMORY_READS_COUNTER = "Low Memory Reads";
+    static final String MEMORY_BUDGET_USED_COUNTER = "Memory Budget Used (bytes)";
+    static final String OVER_BUDGET_PENALIZE = "Penalize";
+    static final String OVER_BUDGET_LOW_MEMORY_READ = "Low Memory Read";
+    static final String VALUE_FORMATTED = "Formatted";
+    static final String VALUE_RAW = "Raw";
 
     static final String CSV_MIME_TYPE = "text/csv";
     static final String SHEET_NAME_SEPARATOR = "-";
     static final String CSV_EXTENSION = ".csv";
+    static final String XLS_EXTENSION = ".xls";
+    static final String TAR_MIME_TYPE = "application/x-tar";
+    static final String TAR_EXTENSION = ".tar";
+    static final String ZIP_MIME_TYPE = "application/zip";
+    static final String ZIP_EXTENSION = ".zip";
     static final String SHEET_NAME_ATT = "sheet name";
     static final String ROW_NUM_ATT = "row num";
+    static final String SHEET_ROW_NUM_ATT = "sheet row num";
     static final String SOURCE_NAME_ATT = "source name";
+    static final String SHEET_COUNT_ATT = "sheet.count";
+    static final String SHEET_ATT_PREFIX = "sheet.";
+    static final String SHEET_NAME_ATT_SUFFIX = ".name";
+    static final String SHEET_ROW_COUNT_ATT_SUFFIX = ".row.count";
+    static final String FRAGMENT_ID_ATT = "fragment.identifier";
+    static final String FRAGMENT_INDEX_ATT = "fragment.index";
+    static final String FRAGMENT_COUNT_ATT = "fragment.count";
+    static final String SEGMENT_ORIGINAL_FILENAME_ATT = "segment.original.filename";
+    static final String OPEN_MILLIS_ATT = "excel.open.millis";
+    static final String CONVERSION_MILLIS_ATT = "excel.conversion.millis";
+    static final String WRITE_MILLIS_ATT = "excel.write.millis";
+    static final String ROWS_ATT = "excel.rows";
+    static final String CELLS_ATT = "excel.cells";
+    static final String FORMULAS_EVALUATED_ATT = "excel.formulas.evaluated";
+    static final String BYTES_WRITTEN_ATT = "excel.bytes.written";
+    static final String UNCOMPRESSED_BYTES_ATT = "excel.uncompressed.bytes";
+    static final String MEMORY_ESTIMATE_ATT = "excel.memory.estimate";
+    static final String MEMORY_BUDGET_USED_ATT = "excel.memory.budget.used";
+    static final String UNCOMPRESSED_SIZE_ATT = "uncompressed.size";
+    static final String COMPRESSION_RATIO_ATT = "compression.ratio";
+    static final String SHEET_CONVERSION_MILLIS_ATT = "excel.sheet.conversion.millis";
+    static final String SHEET_CELLS_ATT = "excel.sheet.cells";
+    static final String NOT_A_WORKBOOK_MESSAGE = "This File is not a Excel Work Book. Only .xls and .xlsx is supported";
+    static final String TEMP_FILE_PREFIX = "ExcelToCsv-";
+    static final String TEMP_FILE_SUFFIX = ".tmp";
     static final byte[] BYTE_ORDER_MARKER = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
 
-    private ComponentLog logger;
-    private CSVConverter converter;
-    private boolean utf8Encoded;
-    private String[] extractSheets;
+    private volatile ComponentLog logger;
+    private volatile CSVConverter converter;
+    private volatile boolean utf8Encoded;
+    private volatile Charset charset;
+    private volatile boolean streamingRead;
+    private volatile SheetSelector sheetSelector;
+    private volatile boolean manifestOnly;
+    private volatile String sheetOutput;
+    private volatile CSVDialect dialect;
+    private volatile OutputCompression compression;
+    private volatile int compressionLevel;
+    private volatile ExecutorService sheetExecutor;
+    private volatile boolean splitSheets;
+    private volatile boolean writeMetricsAttributes;
+    private volatile int batchSize;
+    private volatile Long spillThreshold;
+    private volatile long batchDurationNanos;
+    private volatile ConversionCache conversionCache;
+    private volatile MemoryBudget memoryBudget;
+    private volatile boolean lowMemoryRead;
+    private final Queue<BufferedEncodingWriter> writerPool = new ConcurrentLinkedQueue<>();
 
     public static final PropertyDescriptor UTF8_ENCODED = new PropertyDescriptor
             .Builder().name("utf8-encoded")
@@ -96,6 +229,54 @@ public class ExcelToCsv extends AbstractProcessor {
             .required(true)
             .build();
 
+    public static final PropertyDescriptor QUOTE_CHARACTER = new PropertyDescriptor
+            .Builder().name("quote-character")
+            .displayName("Quote Character")
+            .description("Character used to enclose fields that contain the delimiter, a line break or the quote character itself")
+            .defaultValue("\"")
+            .addValidator(StandardValidators.createRegexMatchingValidator(Pattern.compile("^.$", Pattern.DOTALL)))
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor ESCAPE_CHARACTER = new PropertyDescriptor
+            .Builder().name("escape-character")
+            .displayName("Escape Character")
+            .description("Character put in front of the delimiter, line breaks and itself when the Unix escape convention is used")
+            .defaultValue("\\")
+            .addValidator(StandardValidators.createRegexMatchingValidator(Pattern.compile("^.$", Pattern.DOTALL)))
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor QUOTE_POLICY = new PropertyDescriptor
+            .Builder().name("quote-policy")
+            .displayName("Quote Policy")
+            .description("Which fields are enclosed in quote characters: only the fields that need it, all fields or all fields " +
+                    "that are not plain numbers. Missing cells are always written as empty, unquoted fields.")
+            .allowableValues(QUOTE_MINIMAL, QUOTE_ALL, QUOTE_NON_NUMERIC)
+            .defaultValue(QUOTE_MINIMAL)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor RECORD_SEPARATOR = new PropertyDescriptor
+            .Builder().name("record-separator")
+            .displayName("Record Separator")
+            .description("Line break written at the end of each row")
+            .allowableValues(LF_SEPARATOR, CRLF_SEPARATOR)
+            .defaultValue(LF_SEPARATOR)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor VALUE_FORMAT = new PropertyDescriptor
+            .Builder().name("value-format")
+            .displayName("Value Format")
+            .description("How cell values are written. " + VALUE_FORMATTED + " writes them as Excel displays them, with the " +
+                    "number and date format of the cell. " + VALUE_RAW + " skips the display formats and writes numbers in " +
+                    "canonical form, dates as ISO-8601 and booleans as true or false.")
+            .allowableValues(VALUE_FORMATTED, VALUE_RAW)
+            .defaultValue(VALUE_FORMATTED)
+            .required(true)
+            .build();
+
     public static final PropertyDescriptor EXTRACT_SHEETS = new PropertyDescriptor
             .Builder().name("extract-sheets")
             .displayName("Sheets to Extract")
@@ -106,6 +287,288 @@ public class ExcelToCsv extends AbstractProcessor {
             .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
             .build();
 
+    public static final PropertyDescriptor SHEET_INDEXES = new PropertyDescriptor
+            .Builder().name("sheet-indexes")
+            .displayName("Sheet Indexes")
+            .description("Comma separated list of sheet positions, counting from 0, or ranges of positions such as 2-5, " +
+                    "of the sheets that should be extracted. Sheets chosen by Sheets to Extract come first, then the " +
+                    "sheets chosen by index or by Sheet Name Pattern in workbook order. When Sheets to Extract, Sheet " +
+                    "Indexes and Sheet Name Pattern are all blank every sheet is extracted.")
+            .required(false)
+            .addValidator(StandardValidators.createRegexMatchingValidator(Pattern.compile("^\\s*\\d+(\\s*-\\s*\\d+)?(\\s*,\\s*\\d+(\\s*-\\s*\\d+)?)*\\s*$")))
+            .build();
+
+    public static final PropertyDescriptor SHEET_NAME_PATTERN = new PropertyDescriptor
+            .Builder().name("sheet-name-pattern")
+            .displayName("Sheet Name Pattern")
+            .description("Regular expression matched against the whole sheet name of the sheets that should be extracted.")
+            .required(false)
+            .addValidator(StandardValidators.REGULAR_EXPRESSION_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor CELL_RANGE = new PropertyDescriptor
+            .Builder().name("cell-range")
+            .displayName("Cell Range")
+            .description("Range of cells converted in each sheet, such as A1:H5000, A:H for whole columns or 2:5000 for " +
+                    "whole rows. The first column of the range is written as the first field and the rows after the " +
+                    "range are not read. When blank every cell is converted.")
+            .required(false)
+            .addValidator(StandardValidators.createRegexMatchingValidator(Pattern.compile(
+                    "^\\s*\\$?[A-Za-z]{0,3}(\\$?[1-9]\\d*)?\\s*:\\s*\\$?[A-Za-z]{0,3}(\\$?[1-9]\\d*)?\\s*$")))
+            .build();
+
+    public static final PropertyDescriptor COLUMNS = new PropertyDescriptor
+            .Builder().name("columns")
+            .displayName("Columns")
+            .description("Comma separated list of column letters, or ranges of columns such as C:F, of the columns that " +
+                    "should be written. The columns are written in sheet order. When Columns and Column Names are both " +
+                    "blank every column of the Cell Range is written.")
+            .required(false)
+            .addValidator(StandardValidators.createRegexMatchingValidator(Pattern.compile(
+                    "^\\s*[A-Za-z]{1,3}(\\s*:\\s*[A-Za-z]{1,3})?(\\s*,\\s*[A-Za-z]{1,3}(\\s*:\\s*[A-Za-z]{1,3})?)*\\s*$")))
+            .build();
+
+    public static final PropertyDescriptor COLUMN_NAMES = new PropertyDescriptor
+            .Builder().name("column-names")
+            .displayName("Column Names")
+            .description("Comma separated list of the header names of the columns that should be written, in addition to " +
+                    "the Columns. The header is the first row of the Cell Range, and names are compared ignoring case.")
+            .required(false)
+            .addValidator(StandardValidators.NON_BLANK_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor SKIP_BLANK_ROWS = new PropertyDescriptor
+            .Builder().name("skip-blank-rows")
+            .displayName("Skip Blank Rows")
+            .description("Should rows that are missing or have no value in the written columns be left out, instead of " +
+                    "being written as empty records")
+            .allowableValues("true", "false")
+            .defaultValue("false")
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor TRIM_TRAILING_EMPTY_COLUMNS = new PropertyDescriptor
+            .Builder().name("trim-trailing-empty-columns")
+            .displayName("Trim Trailing Empty Columns")
+            .description("Should the empty fields at the end of each record be left out")
+            .allowableValues("true", "false")
+            .defaultValue("false")
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor OUTPUT_CONTENT = new PropertyDescriptor
+            .Builder().name("output-content")
+            .displayName("Output Content")
+            .description("What is written for each Excel FlowFile. " + OUTPUT_CSV + " converts every selected sheet. " +
+                    OUTPUT_MANIFEST + " writes a single csv FlowFile listing the index, name, dimension and row count " +
+                    "of the selected sheets without converting any cell.")
+            .allowableValues(OUTPUT_CSV, OUTPUT_MANIFEST)
+            .defaultValue(OUTPUT_CSV)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor SHEET_OUTPUT = new PropertyDescriptor
+            .Builder().name("sheet-output")
+            .displayName("Sheet Output")
+            .description("How the converted sheets are grouped into FlowFiles. " + SHEET_OUTPUT_FLOWFILES + " writes every sheet " +
+                    "to its own FlowFile. The other choices write all the selected sheets to a single FlowFile that lists " +
+                    "their names and row counts in the sheet.count, sheet.<n>.name and sheet.<n>.row.count attributes: " +
+                    SHEET_OUTPUT_MERGED + " writes one csv whose first column is the sheet name, " + SHEET_OUTPUT_TAR + " and " +
+                    SHEET_OUTPUT_ZIP + " write an archive with one csv entry per sheet. Tar entries are written to a temporary " +
+                    "file one sheet at a time, zip entries are streamed. Max Rows Per FlowFile only applies to " +
+                    SHEET_OUTPUT_FLOWFILES + ".")
+            .allowableValues(SHEET_OUTPUT_FLOWFILES, SHEET_OUTPUT_MERGED, SHEET_OUTPUT_TAR, SHEET_OUTPUT_ZIP)
+            .defaultValue(SHEET_OUTPUT_FLOWFILES)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor STREAMING_READ = new PropertyDescriptor
+            .Builder().name("streaming-read")
+            .displayName("Streaming Read")
+            .description("Should .xls and .xlsx documents be read record by record with the event model of POI instead of loading the whole " +
+                    "workbook in memory. Streaming keeps memory usage flat regardless of the size of the sheets, but formulas " +
+                    "are written with the result cached in the document instead of being evaluated.")
+            .allowableValues("true", "false")
+            .defaultValue("true")
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor FORMULA_EVALUATION = new PropertyDescriptor
+            .Builder().name("formula-evaluation")
+            .displayName("Formula Evaluation")
+            .description("How formula cells are converted when Streaming Read is disabled. " + FORMULA_CACHED + " writes the result " +
+                    "Excel stored in the document, " + FORMULA_EVALUATE + " evaluates every formula again and " +
+                    FORMULA_EVALUATE_IF_NO_CACHED_VALUE + " only evaluates the formulas that were saved without a result. " +
+                    "Streaming Read always writes the stored results, so formulas can only be evaluated when it is disabled.")
+            .allowableValues(FORMULA_CACHED, FORMULA_EVALUATE, FORMULA_EVALUATE_IF_NO_CACHED_VALUE)
+            .defaultValue(FORMULA_CACHED)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor SHEET_CONVERSION_PARALLELISM = new PropertyDescriptor
+            .Builder().name("sheet-conversion-parallelism")
+            .displayName("Sheet Conversion Parallelism")
+            .description("Maximum number of sheets of one workbook that are converted at the same time when Streaming Read " +
+                    "is enabled. With a value of 1 the sheets are converted one after another. With a higher value the task " +
+                    "that received the workbook writes one sheet while up to this value minus one of the following sheets " +
+                    "are converted on a shared pool of this size and held in memory until they are written, in sheet order.")
+            .defaultValue("1")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor MAX_ROWS_PER_FLOWFILE = new PropertyDescriptor
+            .Builder().name("max-rows-per-flowfile")
+            .displayName("Max Rows Per FlowFile")
+            .description("Maximum number of rows written to one csv FlowFile. Larger sheets are split while they are converted " +
+                    "into several FlowFiles that carry the fragment.identifier, fragment.index and fragment.count attributes. " +
+                    "A value of 0 writes each sheet to a single FlowFile.")
+            .defaultValue("0")
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor REPEAT_HEADER_ROW = new PropertyDescriptor
+            .Builder().name("repeat-header-row")
+            .displayName("Repeat Header Row")
+            .description("When a sheet is split by Max Rows Per FlowFile, should the first row of the sheet be written again " +
+                    "at the start of every FlowFile. The header row is not counted in Max Rows Per FlowFile.")
+            .allowableValues("true", "false")
+            .defaultValue("false")
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor WRITE_METRICS_ATTRIBUTES = new PropertyDescriptor
+            .Builder().name("write-metrics-attributes")
+            .displayName("Write Metrics Attributes")
+            .description("Should the conversion measurements be written as attributes. Csv FlowFiles get the conversion time " +
+                    "and cell count of their sheet, the original FlowFile gets the workbook open, conversion and write times " +
+                    "and the row, cell, formula and byte counts of the whole workbook, and with a Memory Budget the memory " +
+                    "reserved for the workbook and the budget in use once it was admitted. The counts and times are always " +
+                    "published as processor counters.")
+            .allowableValues("true", "false")
+            .defaultValue("false")
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor OUTPUT_COMPRESSION = new PropertyDescriptor
+            .Builder().name("output-compression")
+            .displayName("Output Compression")
+            .description("Codec the csv FlowFiles are compressed with while they are written. The mime.type and the " +
+                    "filename extension of the FlowFiles follow the codec, and the uncompressed.size and compression.ratio " +
+                    "attributes report the gain. " + COMPRESSION_LZ4 + " and " + COMPRESSION_SNAPPY + " use the framed formats.")
+            .allowableValues(COMPRESSION_NONE, COMPRESSION_GZIP, COMPRESSION_LZ4, COMPRESSION_SNAPPY)
+            .defaultValue(COMPRESSION_NONE)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor COMPRESSION_LEVEL = new PropertyDescriptor
+            .Builder().name("compression-level")
+            .displayName("Compression Level")
+            .description("Compression level from " + OutputCompression.MIN_LEVEL + ", the fastest, to " +
+                    OutputCompression.MAX_LEVEL + ", the smallest output. " + COMPRESSION_LZ4 + " and " + COMPRESSION_SNAPPY +
+                    " only distinguish fast (up to 3), default and high (7 and above) compression.")
+            .defaultValue("1")
+            .addValidator(StandardValidators.createLongValidator(OutputCompression.MIN_LEVEL, OutputCompression.MAX_LEVEL, true))
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor SPILL_THRESHOLD = new PropertyDescriptor
+            .Builder().name("spill-threshold")
+            .displayName("Spill To Disk Threshold")
+            .description("Excel FlowFiles larger than this size are copied to a temporary file and opened from that file, " +
+                    "so POI reads the workbook with random access instead of buffering it in memory. The temporary file " +
+                    "is deleted once the FlowFile is converted. When not set, every workbook is read from the content stream.")
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .required(false)
+            .build();
+
+    public static final PropertyDescriptor MEMORY_BUDGET = new PropertyDescriptor
+            .Builder().name("memory-budget")
+            .displayName("Memory Budget")
+            .description("Heap the concurrent tasks of the processor may take together for the workbooks they convert. " +
+                    "The memory a workbook needs is estimated before it is opened. A workbook spilled to a temporary file " +
+                    "is estimated from the uncompressed sizes of the parts of a .xlsx, read from the zip directory, or from " +
+                    "the size of a .xls. A workbook read from its content is only estimated from its size: it is taken for " +
+                    "a .xls when its file name ends with .xls, otherwise for a .xlsx whose parts are " +
+                    WorkbookMemoryEstimate.XLSX_COMPRESSION_FACTOR + " times its size. A workbook that doesn't fit in what " +
+                    "is left of the budget is handled as set by Over Budget Strategy, unless no other workbook is being " +
+                    "converted. The memory reserved by the workbooks being converted is shown by the " +
+                    MEMORY_BUDGET_USED_COUNTER + " counter. " +
+                    "When not set, every workbook is converted as soon as it is received.")
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .required(false)
+            .build();
+
+    public static final PropertyDescriptor OVER_BUDGET_STRATEGY = new PropertyDescriptor
+            .Builder().name("over-budget-strategy")
+            .displayName("Over Budget Strategy")
+            .description("What is done with a workbook that doesn't fit in the Memory Budget. " + OVER_BUDGET_PENALIZE +
+                    " returns it to the queue, penalized, to be converted once other workbooks are done. " +
+                    OVER_BUDGET_LOW_MEMORY_READ + " converts it with Streaming Read from a temporary file when that fits " +
+                    "in the budget, writing the formula results stored in the document, and penalizes it otherwise. When " +
+                    "Streaming Read is disabled, such a conversion isn't kept in the Conversion Cache.")
+            .allowableValues(OVER_BUDGET_PENALIZE, OVER_BUDGET_LOW_MEMORY_READ)
+            .defaultValue(OVER_BUDGET_PENALIZE)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor CACHE_DIRECTORY = new PropertyDescriptor
+            .Builder().name("conversion-cache-directory")
+            .displayName("Conversion Cache Directory")
+            .description("Directory where the conversions of workbooks are kept, so a workbook received again with the " +
+                    "same content is written from the cache without being parsed. Entries are keyed by a hash of the " +
+                    "workbook content and of the properties that change the csv. Formulas that depend on the current " +
+                    "time are not evaluated again on a cache hit. When not set, every workbook is converted. The cache " +
+                    "isn't used when the Output Content is " + OUTPUT_MANIFEST + ".")
+            .addValidator(StandardValidators.createDirectoryExistsValidator(false, true))
+            .required(false)
+            .build();
+
+    public static final PropertyDescriptor CACHE_MAX_SIZE = new PropertyDescriptor
+            .Builder().name("conversion-cache-max-size")
+            .displayName("Conversion Cache Max Size")
+            .description("Maximum disk space taken by the conversion cache. The least recently used entries are deleted " +
+                    "when it is exceeded.")
+            .defaultValue("1 GB")
+            .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor CACHE_MAX_AGE = new PropertyDescriptor
+            .Builder().name("conversion-cache-max-age")
+            .displayName("Conversion Cache Max Age")
+            .description("Time after which an entry of the conversion cache is no longer used and is deleted.")
+            .defaultValue("1 day")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor
+            .Builder().name("batch-size")
+            .displayName("Batch Size")
+            .description("Maximum number of Excel FlowFiles converted in one execution of the processor. Each FlowFile is " +
+                    "still routed on its own, so a file that can't be converted doesn't fail the others.")
+            .defaultValue("1")
+            .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+            .required(true)
+            .build();
+
+    public static final PropertyDescriptor BATCH_DURATION = new PropertyDescriptor
+            .Builder().name("batch-duration")
+            .displayName("Batch Duration")
+            .description("Maximum time spent converting the FlowFiles of one batch. When it is exceeded the FlowFiles " +
+                    "that were not converted yet are returned to the queue.")
+            .defaultValue("1 sec")
+            .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+            .required(true)
+            .build();
+
+    // properties that don't change the converted csv, left out of the conversion cache keys
+    private static final Set<PropertyDescriptor> CACHE_INDEPENDENT_PROPERTIES = new HashSet<>(Arrays.asList(
+            SHEET_CONVERSION_PARALLELISM, WRITE_METRICS_ATTRIBUTES, OUTPUT_COMPRESSION, COMPRESSION_LEVEL,
+            SPILL_THRESHOLD, MEMORY_BUDGET, OVER_BUDGET_STRATEGY, CACHE_DIRECTORY, CACHE_MAX_SIZE, CACHE_MAX_AGE, BATCH_SIZE, BATCH_DURATION));
+
     public static final Relationship SUCCESS = new Relationship.Builder()
             .name("success")
             .description("Excel files that have been successfully converted to csv are transferred to this relationship")
@@ -127,7 +590,37 @@ public class ExcelToCsv extends AbstractProcessor {
         descriptors.add(UTF8_ENCODED);
         descriptors.add(ESCAPE_CONVENTION);
         descriptors.add(DELIMITER);
+        descriptors.add(QUOTE_CHARACTER);
+        descriptors.add(ESCAPE_CHARACTER);
+        descriptors.add(QUOTE_POLICY);
+        descriptors.add(RECORD_SEPARATOR);
+        descriptors.add(VALUE_FORMAT);
         descriptors.add(EXTRACT_SHEETS);
+        descriptors.add(SHEET_INDEXES);
+        descriptors.add(SHEET_NAME_PATTERN);
+        descriptors.add(CELL_RANGE);
+        descriptors.add(COLUMNS);
+        descriptors.add(COLUMN_NAMES);
+        descriptors.add(SKIP_BLANK_ROWS);
+        descriptors.add(TRIM_TRAILING_EMPTY_COLUMNS);
+        descriptors.add(OUTPUT_CONTENT);
+        descriptors.add(SHEET_OUTPUT);
+        descriptors.add(STREAMING_READ);
+        descriptors.add(FORMULA_EVALUATION);
+        descriptors.add(SHEET_CONVERSION_PARALLELISM);
+        descriptors.add(MAX_ROWS_PER_FLOWFILE);
+        descriptors.add(REPEAT_HEADER_ROW);
+        descriptors.add(WRITE_METRICS_ATTRIBUTES);
+        descriptors.add(OUTPUT_COMPRESSION);
+        descriptors.add(COMPRESSION_LEVEL);
+        descriptors.add(SPILL_THRESHOLD);
+        descriptors.add(MEMORY_BUDGET);
+        descriptors.add(OVER_BUDGET_STRATEGY);
+        descriptors.add(CACHE_DIRECTORY);
+        descriptors.add(CACHE_MAX_SIZE);
+        descriptors.add(CACHE_MAX_AGE);
+        descriptors.add(BATCH_SIZE);
+        descriptors.add(BATCH_DURATION);
         this.descriptors = Collections.unmodifiableList(descriptors);
 
         final Set<Relationship> relationships = new HashSet<>();
@@ -147,16 +640,156 @@ public class ExcelToCsv extends AbstractProcessor {
         return descriptors;
     }
 
+    @Override
+    protected Collection<ValidationResult> customValidate(ValidationContext context) {
+        List<ValidationResult> results = new ArrayList<>();
+        if (context.getProperty(STREAMING_READ).asBoolean()
+                && !context.getProperty(FORMULA_EVALUATION).getValue().equals(FORMULA_CACHED)) {
+            results.add(new ValidationResult.Builder()
+                    .subject(FORMULA_EVALUATION.getDisplayName())
+                    .valid(false)
+                    .explanation("formulas can only be evaluated when " + STREAMING_READ.getDisplayName() + " is disabled")
+                    .build());
+        }
+        return results;
+    }
+
     @OnScheduled
     public void onScheduled(final ProcessContext context) {
         logger = getLogger();
         utf8Encoded = context.getProperty(UTF8_ENCODED).asBoolean();
-        String delimiterSheetName;
-        if ((delimiterSheetName = context.getProperty(EXTRACT_SHEETS).getValue()) != null) {
-            extractSheets = delimiterSheetName.split(SHEET_NAME_DELIMITER);
+        charset = utf8Encoded ? StandardCharsets.UTF_8 : Charset.defaultCharset();
+        streamingRead = context.getProperty(STREAMING_READ).asBoolean();
+        writeMetricsAttributes = context.getProperty(WRITE_METRICS_ATTRIBUTES).asBoolean();
+        batchSize = context.getProperty(BATCH_SIZE).asInteger();
+        spillThreshold = context.getProperty(SPILL_THRESHOLD).isSet() ?
+                context.getProperty(SPILL_THRESHOLD).asDataSize(DataUnit.B).longValue() : null;
+        batchDurationNanos = context.getProperty(BATCH_DURATION).asTimePeriod(TimeUnit.NANOSECONDS);
+        memoryBudget = context.getProperty(MEMORY_BUDGET).isSet() ?
+                new MemoryBudget(context.getProperty(MEMORY_BUDGET).asDataSize(DataUnit.B).longValue()) : null;
+        lowMemoryRead = context.getProperty(OVER_BUDGET_STRATEGY).getValue().equals(OVER_BUDGET_LOW_MEMORY_READ);
+        writerPool.clear();
+        sheetSelector = createSheetSelector(context);
+        manifestOnly = context.getProperty(OUTPUT_CONTENT).getValue().equals(OUTPUT_MANIFEST);
+        sheetOutput = context.getProperty(SHEET_OUTPUT).getValue();
+        compression = OutputCompression.NONE;
+        String codec = context.getProperty(OUTPUT_COMPRESSION).getValue();
+        if (codec.equals(COMPRESSION_GZIP)) {
+            compression = OutputCompression.GZIP;
+        } else if (codec.equals(COMPRESSION_LZ4)) {
+            compression = OutputCompression.LZ4;
+        } else if (codec.equals(COMPRESSION_SNAPPY)) {
+            compression = OutputCompression.SNAPPY;
         }
+        compressionLevel = context.getProperty(COMPRESSION_LEVEL).asInteger();
         setupConverter(context);
-        logger.info("Processor Started!");
+        conversionCache = null;
+        if (context.getProperty(CACHE_DIRECTORY).isSet() && !manifestOnly) {
+            try {
+                conversionCache = new ConversionCache(Paths.get(context.getProperty(CACHE_DIRECTORY).getValue()),
+                        context.getProperty(CACHE_MAX_SIZE).asDataSize(DataUnit.B).longValue(),
+                        context.getProperty(CACHE_MAX_AGE).asTimePeriod(TimeUnit.MILLISECONDS),
+                        getCacheConfiguration(context));
+            } catch (IOException exception) {
+                throw new ProcessException("Failed to open the conversion cache", exception);
+            }
+        }
+        int parallelism = context.getProperty(SHEET_CONVERSION_PARALLELISM).asInteger();
+        if (parallelism > 1) {
+            sheetExecutor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+                private final AtomicInteger threadCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ExcelToCsv-" + getIdentifier() + "-sheet-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    @OnStopped
+    public void onStopped() {
+        if (sheetExecutor != null) {
+            sheetExecutor.shutdownNow();
+            sheetExecutor = null;
+        }
+        writerPool.clear();
+    }
+
+    /**
+     * Describes the properties that change the converted csv, so a cached conversion is only reused with the same.
+     */
+    private String getCacheConfiguration(ProcessContext context) {
+        StringBuilder configuration = new StringBuilder(CACHE_FORMAT_VERSION);
+        for (PropertyDescriptor descriptor : descriptors) {
+            if (!CACHE_INDEPENDENT_PROPERTIES.contains(descriptor)) {
+                String value = String.valueOf(context.getProperty(descriptor).getValue());
+                configuration.append('\n').append(descriptor.getName()).append('=').append(value.length()).append(':').append(value);
+            }
+        }
+        return configuration.toString();
+    }
+
+    static SheetSelector createSheetSelector(PropertyContext context) {
+        SheetSelector.Builder builder = new SheetSelector.Builder();
+        String sheetNames = context.getProperty(EXTRACT_SHEETS).getValue();
+        if (sheetNames != null) {
+            builder.names(sheetNames.split(SHEET_NAME_DELIMITER));
+        }
+        String sheetIndexes = context.getProperty(SHEET_INDEXES).getValue();
+        if (sheetIndexes != null) {
+            for (String range : sheetIndexes.split(SHEET_INDEX_DELIMITER)) {
+                String[] bounds = range.split(SHEET_INDEX_RANGE_SEPARATOR);
+                int firstIndex = Integer.parseInt(bounds[0].trim());
+                int lastIndex = bounds.length > 1 ? Integer.parseInt(bounds[1].trim()) : firstIndex;
+                builder.indexes(Math.min(firstIndex, lastIndex), Math.max(firstIndex, lastIndex));
+            }
+        }
+        String sheetNamePattern = context.getProperty(SHEET_NAME_PATTERN).getValue();
+        if (sheetNamePattern != null) {
+            builder.pattern(Pattern.compile(sheetNamePattern));
+        }
+        return builder.build();
+    }
+
+    private CellProjection createCellProjection(ProcessContext context) {
+        CellProjection.Builder builder = new CellProjection.Builder()
+                .skipBlankRows(context.getProperty(SKIP_BLANK_ROWS).asBoolean())
+                .trimTrailingEmptyColumns(context.getProperty(TRIM_TRAILING_EMPTY_COLUMNS).asBoolean());
+        String cellRange = context.getProperty(CELL_RANGE).getValue();
+        if (cellRange != null) {
+            String[] corners = cellRange.split(COLUMN_RANGE_SEPARATOR);
+            CellReference first = parseCellReference(corners[0]);
+            CellReference last = parseCellReference(corners.length > 1 ? corners[1] : "");
+            int firstRow = first != null && first.getRow() >= 0 ? first.getRow() : 0;
+            int lastRow = last != null && last.getRow() >= 0 ? last.getRow() : Integer.MAX_VALUE;
+            builder.rows(Math.min(firstRow, lastRow), Math.max(firstRow, lastRow));
+            int firstColumn = first != null && first.getCol() >= 0 ? first.getCol() : 0;
+            int lastColumn = last != null && last.getCol() >= 0 ? last.getCol() : Integer.MAX_VALUE;
+            builder.columnRange(Math.min(firstColumn, lastColumn), Math.max(firstColumn, lastColumn));
+        }
+        String columns = context.getProperty(COLUMNS).getValue();
+        if (columns != null) {
+            for (String range : columns.split(COLUMN_DELIMITER)) {
+                String[] bounds = range.split(COLUMN_RANGE_SEPARATOR);
+                int firstColumn = CellReference.convertColStringToIndex(bounds[0].trim().toUpperCase(Locale.ROOT));
+                int lastColumn = bounds.length > 1 ?
+                        CellReference.convertColStringToIndex(bounds[1].trim().toUpperCase(Locale.ROOT)) : firstColumn;
+                builder.columns(Math.min(firstColumn, lastColumn), Math.max(firstColumn, lastColumn));
+            }
+        }
+        String columnNames = context.getProperty(COLUMN_NAMES).getValue();
+        if (columnNames != null) {
+            builder.columnNames(columnNames.split(COLUMN_DELIMITER));
+        }
+        return builder.build();
+    }
+
+    private static CellReference parseCellReference(String reference) {
+        reference = reference.trim();
+        return reference.isEmpty() ? null : new CellReference(reference.toUpperCase(Locale.ROOT));
     }
 
     private void setupConverter(ProcessContext context) {
@@ -165,88 +798,356 @@ public class ExcelToCsv extends AbstractProcessor {
         if (convention.equals(UNIX_SYSTEM)) {
             escapeChar = EscapeChar.UNIX_STYLE_ESCAPING;
         }
-        String delimiter = context.getProperty(DELIMITER).getValue();
-        converter = new CSVConverterImp(delimiter, escapeChar);
+        QuotePolicy quotePolicy = QuotePolicy.MINIMAL;
+        String policy = context.getProperty(QUOTE_POLICY).getValue();
+        if (policy.equals(QUOTE_ALL)) {
+            quotePolicy = QuotePolicy.ALL;
+        } else if (policy.equals(QUOTE_NON_NUMERIC)) {
+            quotePolicy = QuotePolicy.NON_NUMERIC;
+        }
+        dialect = new CSVDialect.Builder()
+                .delimiter(context.getProperty(DELIMITER).getValue())
+                .escapeChar(escapeChar)
+                .quoteCharacter(context.getProperty(QUOTE_CHARACTER).getValue().charAt(0))
+                .escapeCharacter(context.getProperty(ESCAPE_CHARACTER).getValue().charAt(0))
+                .quotePolicy(quotePolicy)
+                .recordSeparator(context.getProperty(RECORD_SEPARATOR).getValue().equals(CRLF_SEPARATOR) ? CSVDialect.CRLF : CSVDialect.LF)
+                .build();
+        boolean flowFilePerSheet = sheetOutput.equals(SHEET_OUTPUT_FLOWFILES);
+        int maxRowsPerFlowFile = flowFilePerSheet ? context.getProperty(MAX_ROWS_PER_FLOWFILE).asInteger() : 0;
+        splitSheets = maxRowsPerFlowFile > 0;
+        converter = new CSVConverterImp.Builder()
+                .dialect(dialect)
+                .maxRowsPerPart(maxRowsPerFlowFile)
+                .repeatHeader(context.getProperty(REPEAT_HEADER_ROW).asBoolean())
+                .formulaEvaluation(getFormulaEvaluation(context))
+                .valueFormat(context.getProperty(VALUE_FORMAT).getValue().equals(VALUE_RAW) ? ValueFormat.RAW : ValueFormat.FORMATTED)
+                .sheetNameColumn(sheetOutput.equals(SHEET_OUTPUT_MERGED))
+                .projection(createCellProjection(context))
+                .sheetParallelism(context.getProperty(SHEET_CONVERSION_PARALLELISM).asInteger())
+                .build();
+    }
+
+    static FormulaEvaluation getFormulaEvaluation(PropertyContext context) {
+        String evaluation = context.getProperty(FORMULA_EVALUATION).getValue();
+        if (evaluation.equals(FORMULA_CACHED)) {
+            return FormulaEvaluation.CACHED;
+        } else if (evaluation.equals(FORMULA_EVALUATE_IF_NO_CACHED_VALUE)) {
+            return FormulaEvaluation.EVALUATE_IF_NO_CACHED_VALUE;
+        }
+        return FormulaEvaluation.EVALUATE;
     }
 
     @Override
     public void onTrigger(final ProcessContext context, final ProcessSession session) throws ProcessException {
-        logger.info("Processor Triggered!");
-        FlowFile excelFile = session.get();
-        if (excelFile == null) {
+        List<FlowFile> excelFiles = session.get(batchSize);
+        if (excelFiles.isEmpty()) {
             return;
         }
 
+        BufferedEncodingWriter writer = writerPool.poll();
+        if (writer == null) {
+            writer = new BufferedEncodingWriter(charset);
+        }
         try {
-            session.read(excelFile, inputStream -> {
-                try {
-                    Workbook workbook = converter.createWorkbook(inputStream);
-                    if (extractSheets != null) {
-                        logger.info("Export csv by sheet name");
-                        for (String sheetName : extractSheets) {
-                            Sheet sheet = workbook.getSheet(sheetName);
-                            if (sheet != null) {
-                                transformSheetToCSV(session, excelFile, sheet);
-                            } else {
-                                logger.debug(String.format("Sheet %s not found", sheetName));
-                            }
-                        }
-                    } else {
-                        logger.info("Export all sheet in workbook to csv");
-                        for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
-                            Sheet sheet = workbook.getSheetAt(i);
-                            transformSheetToCSV(session, excelFile, sheet);
-                        }
-                    }
-                    logger.info("Finish Processed Excel File");
-                } catch (InvalidDocumentException exception) {
-                    FlowFile failedFlowFile = session.putAttribute(excelFile,
-                            ExcelToCsv.class.getName() + ".error", exception.getMessage());
-                    session.transfer(failedFlowFile, FAILURE);
-                    logger.error("This File is not a Excel Work Book. Only .xls and .xlsx is supported", exception);
-                } finally {
-                    inputStream.close();
+            long deadline = System.nanoTime() + batchDurationNanos;
+            for (int i = 0; i < excelFiles.size(); i++) {
+                if (i > 0 && System.nanoTime() - deadline > 0) {
+                    session.transfer(excelFiles.subList(i, excelFiles.size()));
+                    break;
                 }
-            });
+                convert(session, excelFiles.get(i), writer);
+            }
+        } finally {
+            writerPool.offer(writer);
+        }
+    }
 
-            session.transfer(excelFile, ORIGINAL);
+    private void convert(final ProcessSession session, final FlowFile excelFile, final BufferedEncodingWriter writer) {
+        final List<FlowFile> csvFiles = new ArrayList<>();
+        final ConversionMetrics metrics = new ConversionMetrics();
+        final ExcelSheetOutput output = manifestOnly || sheetOutput.equals(SHEET_OUTPUT_FLOWFILES) ?
+                new FlowFileSheetOutput(session, excelFile, csvFiles, writer, metrics) :
+                new SingleFlowFileSheetOutput(session, excelFile, csvFiles, writer, metrics);
+        try {
+            boolean converted = conversionCache != null ?
+                    convertThroughCache(session, excelFile, output, writer, metrics) :
+                    readWorkbook(session, excelFile, output, output, writer, metrics) != WorkbookRead.DEFERRED;
+            if (!converted) {
+                session.adjustCounter(MEMORY_DEFERRED_COUNTER, 1, false);
+                session.transfer(session.penalize(excelFile));
+                logger.debug("Deferred {}, it doesn't fit in the memory budget", new Object[]{excelFile});
+                return;
+            }
+
+            metrics.publishCounters(session);
+            FlowFile originalFile = excelFile;
+            if (writeMetricsAttributes) {
+                originalFile = session.putAllAttributes(originalFile, metrics.toAttributes());
+            }
+            session.getProvenanceReporter().route(originalFile, ORIGINAL,
+                    csvFiles.size() + " csv FlowFiles, " + metrics, metrics.getTotalMillis());
+            session.transfer(csvFiles, SUCCESS);
+            session.transfer(originalFile, ORIGINAL);
+            logger.debug("Converted {} to {} csv FlowFiles: {}", new Object[]{originalFile, csvFiles.size(), metrics});
 
         } catch (RuntimeException exception) {
+            output.abort(exception);
+            session.remove(csvFiles);
             FlowFile failedFlowFile = session.putAttribute(excelFile,
-                    ExcelToCsv.class.getName() + ".error", exception.getMessage());
+                    ExcelToCsv.class.getName() + ".error", String.valueOf(exception.getMessage()));
             session.transfer(failedFlowFile, FAILURE);
             getLogger().error("Failed to process incoming Excel document. " + exception.getMessage(), exception);
         }
     }
 
-    private void transformSheetToCSV(ProcessSession session, FlowFile excelFile, Sheet sheet) {
-        String csvData = converter.toCSVFormat(sheet);
-        transformSheetToCSV(session, excelFile, sheet, csvData);
+    /**
+     * Writes the cached conversion of the workbook when there is one. Otherwise converts the workbook and records
+     * the conversion in the cache once it succeeded, unless it was read with Streaming Read only to fit in the memory
+     * budget. Returns false when the workbook wasn't admitted by the memory budget.
+     */
+    private boolean convertThroughCache(ProcessSession session, FlowFile excelFile, ExcelSheetOutput output,
+                                     BufferedEncodingWriter writer, ConversionMetrics metrics) {
+        final String[] key = new String[1];
+        session.read(excelFile, inputStream -> key[0] = conversionCache.key(inputStream));
+        try (InputStream cached = conversionCache.open(key[0])) {
+            if (cached != null) {
+                session.adjustCounter(CACHE_HITS_COUNTER, 1, false);
+                try {
+                    RecordingSheetOutput.replay(cached, output);
+                } catch (IOException exception) {
+                    conversionCache.invalidate(key[0]);
+                    throw exception;
+                } finally {
+                    writer.close();
+                }
+                output.finish();
+                return true;
+            }
+        } catch (IOException exception) {
+            throw new ProcessException(exception);
+        }
+
+        session.adjustCounter(CACHE_MISSES_COUNTER, 1, false);
+        Path entryFile = null;
+        RecordingSheetOutput recording = null;
+        try {
+            entryFile = conversionCache.createTempFile();
+            recording = new RecordingSheetOutput(output, new BufferedOutputStream(Files.newOutputStream(entryFile)));
+            WorkbookRead read = readWorkbook(session, excelFile, output, recording, writer, metrics);
+            if (read == WorkbookRead.DEFERRED) {
+                return false;
+            } else if (read == WorkbookRead.STREAMED_FOR_MEMORY) {
+                // the csv differs from what the configured read writes, it must not be replayed for it
+                return true;
+            }
+            recording.finish();
+            conversionCache.put(key[0], entryFile);
+            entryFile = null;
+            return true;
+        } catch (IOException exception) {
+            throw new ProcessException(exception);
+        } finally {
+            if (recording != null) {
+                recording.abort();
+            }
+            if (entryFile != null) {
+                try {
+                    Files.deleteIfExists(entryFile);
+                } catch (IOException exception) {
+                    logger.warn("Failed to delete temporary file {}", new Object[]{entryFile}, exception);
+                }
+            }
+        }
     }
 
-    private void transformSheetToCSV(ProcessSession session, FlowFile excelFile, Sheet sheet, String csvData) {
-        FlowFile csvFile = session.create(excelFile);
-        csvFile = session.write(csvFile, outputStream -> {
-            if (utf8Encoded) {
-                outputStream.write(BYTE_ORDER_MARKER);
-                outputStream.write(csvData.getBytes(StandardCharsets.UTF_8));
+    /**
+     * Converts the workbook to sheetOutput, from a temporary file when it is larger than the spill threshold. With a
+     * memory budget, the workbook isn't converted when the budget can't admit it, and the memory reserved for it is
+     * published as a counter while it is converted.
+     */
+    private WorkbookRead readWorkbook(ProcessSession session, FlowFile excelFile, ExcelSheetOutput output, SheetOutput sheetOutput,
+                                 BufferedEncodingWriter writer, ConversionMetrics metrics) {
+        boolean fromFile = spillThreshold != null && excelFile.getSize() > spillThreshold;
+        boolean streaming = streamingRead;
+        MemoryBudget budget = memoryBudget;
+        long reserved = -1;
+        WorkbookRead read = WorkbookRead.CONVERTED;
+        Path tempFile = null;
+        try {
+            if (fromFile) {
+                tempFile = exportToTempFile(session, excelFile);
+            }
+            if (budget != null) {
+                WorkbookMemoryEstimate estimate = estimateMemory(excelFile, tempFile);
+                if (budget.tryAcquire(estimate.getMemory())) {
+                    reserved = estimate.getMemory();
+                } else if (lowMemoryRead && budget.tryAcquire(estimate.getLowMemory())) {
+                    reserved = estimate.getLowMemory();
+                    fromFile = true;
+                    if (!streaming) {
+                        streaming = true;
+                        read = WorkbookRead.STREAMED_FOR_MEMORY;
+                    }
+                    session.adjustCounter(LOW_MEMORY_READS_COUNTER, 1, false);
+                } else {
+                    return WorkbookRead.DEFERRED;
+                }
+                session.adjustCounter(MEMORY_BUDGET_USED_COUNTER, reserved, true);
+                metrics.setMemory(reserved, budget.getUsed());
+            }
+            if (fromFile) {
+                if (tempFile == null) {
+                    tempFile = exportToTempFile(session, excelFile);
+                }
+                convertWorkbook(tempFile.toFile(), null, output, sheetOutput, streaming, writer, metrics);
             } else {
-                outputStream.write(csvData.getBytes());
+                final boolean streamingFromContent = streaming;
+                session.read(excelFile, inputStream -> {
+                    try {
+                        convertWorkbook(null, inputStream, output, sheetOutput, streamingFromContent, writer, metrics);
+                    } catch (InvalidDocumentException exception) {
+                        throw new ProcessException(NOT_A_WORKBOOK_MESSAGE, exception);
+                    } finally {
+                        inputStream.close();
+                    }
+                });
+            }
+        } catch (IOException exception) {
+            throw new ProcessException(exception);
+        } catch (InvalidDocumentException exception) {
+            throw new ProcessException(NOT_A_WORKBOOK_MESSAGE, exception);
+        } finally {
+            if (reserved >= 0) {
+                budget.release(reserved);
+                session.adjustCounter(MEMORY_BUDGET_USED_COUNTER, -reserved, true);
+            }
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException exception) {
+                    logger.warn("Failed to delete temporary file {}", new Object[]{tempFile}, exception);
+                }
+            }
+        }
+        return read;
+    }
+
+    MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Estimates the memory taken by the workbook from the zip entries of the temporary file it was spilled to, or
+     * only from its size when it is read from its content. The extension of the file name tells a .xls from a .xlsx.
+     */
+    private WorkbookMemoryEstimate estimateMemory(FlowFile excelFile, Path tempFile) throws IOException {
+        if (tempFile != null) {
+            return WorkbookMemoryEstimate.of(tempFile.toFile(), streamingRead);
+        }
+        String fileName = excelFile.getAttribute(CoreAttributes.FILENAME.key());
+        boolean xls = fileName != null && fileName.toLowerCase(Locale.ROOT).endsWith(XLS_EXTENSION);
+        return WorkbookMemoryEstimate.of(excelFile.getSize(), xls, streamingRead);
+    }
+
+    private Path exportToTempFile(ProcessSession session, FlowFile excelFile) throws IOException {
+        Path tempFile = Files.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX);
+        try {
+            session.exportTo(excelFile, tempFile, false);
+        } catch (RuntimeException exception) {
+            Files.deleteIfExists(tempFile);
+            throw exception;
+        }
+        return tempFile;
+    }
+
+    /**
+     * Converts the workbook read from the file when it is not null, otherwise from the input stream. The sheets are
+     * converted to sheetOutput, which passes them on to output.
+     */
+    private void convertWorkbook(File file, InputStream inputStream, ExcelSheetOutput output, SheetOutput sheetOutput,
+                                 boolean streaming, BufferedEncodingWriter writer, ConversionMetrics metrics)
+            throws IOException, InvalidDocumentException {
+        if (manifestOnly) {
+            output.writeManifest(file != null ?
+                    converter.readSheetInfo(file, sheetSelector) :
+                    converter.readSheetInfo(inputStream, sheetSelector));
+        } else if (streaming) {
+            try {
+                if (file != null) {
+                    converter.toCSVFormat(file, sheetSelector, sheetOutput, sheetExecutor);
+                } else {
+                    converter.toCSVFormat(inputStream, sheetSelector, sheetOutput, sheetExecutor);
+                }
+            } finally {
+                writer.close();
+            }
+        } else {
+            long startNanos = System.nanoTime();
+            try (Workbook workbook = file != null ? converter.createWorkbook(file) : converter.createWorkbook(inputStream)) {
+                sheetOutput.workbookOpened(System.nanoTime() - startNanos);
+                ConversionContext conversionContext = converter.createContext(workbook);
+                List<String> sheetNames = new ArrayList<>();
+                for (Sheet sheet : workbook) {
+                    sheetNames.add(sheet.getSheetName());
+                }
+                for (int index : sheetSelector.select(sheetNames)) {
+                    transformSheetToCSV(workbook.getSheetAt(index), conversionContext, sheetOutput, writer);
+                }
+                metrics.addFormulasEvaluated(conversionContext.getFormulasEvaluated());
             }
-            outputStream.close();
-        });
+        }
+        output.finish();
+    }
+
+    private void transformSheetToCSV(Sheet sheet, ConversionContext conversionContext, SheetOutput output,
+                                     BufferedEncodingWriter writer) throws IOException {
+        try {
+            converter.toCSVFormat(sheet, output, conversionContext);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private Writer openWriter(OutputStream outputStream, BufferedEncodingWriter writer) throws IOException {
+        if (utf8Encoded) {
+            outputStream.write(BYTE_ORDER_MARKER);
+        }
+        return writer.reset(outputStream);
+    }
 
+    private void addSheetAttributes(Map<String, String> attributes, FlowFile excelFile, FlowFile csvFile, String sheetName, long rowCount) {
         String sourceFileName = excelFile.getAttribute(CoreAttributes.FILENAME.key());
-        csvFile = session.putAttribute(csvFile, SHEET_NAME_ATT, sheet.getSheetName());
-        csvFile = session.putAttribute(csvFile, ROW_NUM_ATT, String.valueOf(sheet.getPhysicalNumberOfRows()));
-        csvFile = session.putAttribute(csvFile, SOURCE_NAME_ATT, sourceFileName);
-        csvFile = session.putAttribute(csvFile, CoreAttributes.MIME_TYPE.key(), CSV_MIME_TYPE);
-        csvFile = session.putAttribute(csvFile, CoreAttributes.FILENAME.key(),
+        attributes.put(SHEET_NAME_ATT, sheetName);
+        attributes.put(ROW_NUM_ATT, String.valueOf(rowCount));
+        attributes.put(SOURCE_NAME_ATT, sourceFileName);
+        attributes.put(CoreAttributes.MIME_TYPE.key(), CSV_MIME_TYPE);
+        attributes.put(CoreAttributes.FILENAME.key(),
                 StringUtils.isNotEmpty(sourceFileName) ?
-                        getCSVFileName(sourceFileName, sheet.getSheetName()) :
+                        getCSVFileName(sourceFileName, sheetName) :
                         csvFile.getAttribute(CoreAttributes.UUID.key()) + CSV_EXTENSION);
-        session.transfer(csvFile, SUCCESS);
-        logger.info("csv File transferred");
+    }
+
+    private void addFragmentAttributes(Map<String, String> attributes, String fragmentId, int fragmentIndex, int fragmentCount) {
+        String fileName = attributes.get(CoreAttributes.FILENAME.key());
+        attributes.put(FRAGMENT_ID_ATT, fragmentId);
+        attributes.put(FRAGMENT_INDEX_ATT, String.valueOf(fragmentIndex));
+        attributes.put(FRAGMENT_COUNT_ATT, String.valueOf(fragmentCount));
+        attributes.put(SEGMENT_ORIGINAL_FILENAME_ATT, fileName);
+        attributes.put(CoreAttributes.FILENAME.key(),
+                FilenameUtils.removeExtension(fileName) + SHEET_NAME_SEPARATOR + fragmentIndex + CSV_EXTENSION);
+    }
+
+    private void addSheetMetricsAttributes(Map<String, String> attributes, SheetStatistics statistics) {
+        attributes.put(SHEET_CONVERSION_MILLIS_ATT, String.valueOf(TimeUnit.NANOSECONDS.toMillis(statistics.getConversionNanos())));
+        attributes.put(SHEET_CELLS_ATT, String.valueOf(statistics.getCellCount()));
+    }
+
+    private void addCompressionAttributes(Map<String, String> attributes, long[] size) {
+        attributes.put(CoreAttributes.MIME_TYPE.key(), compression.getMimeType());
+        attributes.put(CoreAttributes.FILENAME.key(), attributes.get(CoreAttributes.FILENAME.key()) + compression.getExtension());
+        attributes.put(UNCOMPRESSED_SIZE_ATT, String.valueOf(size[0]));
+        attributes.put(COMPRESSION_RATIO_ATT, String.format(Locale.ROOT, "%.2f", size[1] > 0 ? (double) size[0] / size[1] : 0));
     }
 
     private String getCSVFileName(String sourceFileName, String sheetName) {
@@ -262,4 +1163,334 @@ public class ExcelToCsv extends AbstractProcessor {
         builder.append(CSV_EXTENSION);
         return builder.toString();
     }
+
+    /**
+     * Writes the csv FlowFiles of one Excel FlowFile, compressed when configured, and collects the measurements of
+     * the conversion.
+     */
+    /**
+     * Outcome of {@link #readWorkbook}.
+     */
+    private enum WorkbookRead {
+        CONVERTED,
+        // converted with Streaming Read although it is disabled, as that was all the memory budget admitted
+        STREAMED_FOR_MEMORY,
+        // not admitted by the memory budget
+        DEFERRED
+    }
+
+    private abstract class ExcelSheetOutput implements SheetOutput {
+        final ProcessSession session;
+        final FlowFile excelFile;
+        final List<FlowFile> csvFiles;
+        final BufferedEncodingWriter writer;
+        final ConversionMetrics metrics;
+        private MeteredOutputStream flowFileStream;
+        private CountingOutputStream uncompressedStream;
+        private OutputStream openStream;
+
+        ExcelSheetOutput(ProcessSession session, FlowFile excelFile, List<FlowFile> csvFiles, BufferedEncodingWriter writer,
+                         ConversionMetrics metrics) {
+            this.session = session;
+            this.excelFile = excelFile;
+            this.csvFiles = csvFiles;
+            this.writer = writer;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void workbookOpened(long openNanos) {
+            metrics.addOpenTime(openNanos);
+        }
+
+        @Override
+        public void sheetConverted(String sheetName, SheetStatistics statistics) {
+            metrics.addSheet(statistics);
+        }
+
+        /**
+         * Called once every sheet has been converted.
+         */
+        void finish() throws IOException {
+        }
+
+        /**
+         * Closes the FlowFile being written, if any, after a failed conversion. Failures to close are added to the
+         * failure of the conversion as suppressed exceptions.
+         */
+        void abort(Exception failure) {
+            try {
+                writer.close();
+            } catch (IOException exception) {
+                failure.addSuppressed(exception);
+            }
+            if (openStream != null) {
+                try {
+                    openStream.close();
+                } catch (IOException exception) {
+                    failure.addSuppressed(exception);
+                }
+            }
+        }
+
+        void writeManifest(List<SheetInfo> sheets) throws IOException {
+            FlowFile manifestFile = createFlowFile();
+            try {
+                CSVDialectWriter csvWriter = new CSVDialectWriter(dialect, openWriter(openFlowFile(manifestFile), writer));
+                for (String header : MANIFEST_HEADER) {
+                    csvWriter.writeField(header);
+                }
+                csvWriter.endRecord();
+                for (SheetInfo sheet : sheets) {
+                    csvWriter.writeField(String.valueOf(sheet.getIndex()));
+                    csvWriter.writeField(sheet.getName());
+                    csvWriter.writeField(sheet.getDimension());
+                    csvWriter.writeField(String.valueOf(sheet.getRowCount()));
+                    csvWriter.endRecord();
+                }
+            } finally {
+                writer.close();
+            }
+            long[] size = flowFileClosed();
+            String sourceFileName = excelFile.getAttribute(CoreAttributes.FILENAME.key());
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put(SOURCE_NAME_ATT, sourceFileName);
+            attributes.put(CoreAttributes.MIME_TYPE.key(), CSV_MIME_TYPE);
+            attributes.put(CoreAttributes.FILENAME.key(), StringUtils.isNotEmpty(sourceFileName) ?
+                    getCSVFileName(sourceFileName, MANIFEST_SUFFIX) :
+                    manifestFile.getAttribute(CoreAttributes.UUID.key()) + SHEET_NAME_SEPARATOR + MANIFEST_SUFFIX + CSV_EXTENSION);
+            putAttributes(csvFiles.size() - 1, attributes, size);
+        }
+
+        FlowFile createFlowFile() {
+            FlowFile csvFile = session.create(excelFile);
+            csvFiles.add(csvFile);
+            return csvFile;
+        }
+
+        /**
+         * Opens the content of the FlowFile, through the compression codec when one is configured.
+         */
+        OutputStream openFlowFile(FlowFile csvFile) throws IOException {
+            flowFileStream = new MeteredOutputStream(session.write(csvFile), metrics);
+            if (compression == OutputCompression.NONE) {
+                uncompressedStream = null;
+                openStream = flowFileStream;
+            } else {
+                uncompressedStream = new CountingOutputStream(compression.compress(flowFileStream, compressionLevel));
+                openStream = uncompressedStream;
+            }
+            return openStream;
+        }
+
+        /**
+         * Returns the uncompressed and written sizes of the FlowFile that was just closed.
+         */
+        long[] flowFileClosed() {
+            openStream = null;
+            if (uncompressedStream == null) {
+                return new long[]{flowFileStream.getByteCount(), flowFileStream.getByteCount()};
+            }
+            metrics.addUncompressedBytes(uncompressedStream.getByteCount());
+            return new long[]{uncompressedStream.getByteCount(), flowFileStream.getByteCount()};
+        }
+
+        void putAttributes(int index, Map<String, String> attributes, long[] size) {
+            if (compression != OutputCompression.NONE) {
+                addCompressionAttributes(attributes, size);
+            }
+            csvFiles.set(index, session.putAllAttributes(csvFiles.get(index), attributes));
+        }
+    }
+
+    /**
+     * Writes every sheet, or every part of a sheet split by row count, to its own FlowFile.
+     */
+    private class FlowFileSheetOutput extends ExcelSheetOutput {
+        private final List<long[]> partSizes = new ArrayList<>();
+        private int firstPart;
+        private SheetStatistics sheetStatistics;
+
+        FlowFileSheetOutput(ProcessSession session, FlowFile excelFile, List<FlowFile> csvFiles, BufferedEncodingWriter writer,
+                            ConversionMetrics metrics) {
+            super(session, excelFile, csvFiles, writer, metrics);
+        }
+
+        @Override
+        public void sheetConverted(String sheetName, SheetStatistics statistics) {
+            super.sheetConverted(sheetName, statistics);
+            sheetStatistics = statistics;
+        }
+
+        @Override
+        public Writer startSheet(String sheetName) throws IOException {
+            firstPart = csvFiles.size();
+            sheetStatistics = null;
+            partSizes.clear();
+            return startPart();
+        }
+
+        @Override
+        public Writer nextPart(String sheetName) throws IOException {
+            closePart();
+            return startPart();
+        }
+
+        @Override
+        public void endSheet(String sheetName, int rowCount) throws IOException {
+            closePart();
+            String fragmentId = UUID.randomUUID().toString();
+            int fragmentCount = csvFiles.size() - firstPart;
+            long[] partRowCounts = sheetStatistics != null ? sheetStatistics.getPartRowCounts() : null;
+            for (int i = firstPart; i < csvFiles.size(); i++) {
+                Map<String, String> attributes = new HashMap<>();
+                if (splitSheets && partRowCounts != null && partRowCounts.length == fragmentCount) {
+                    addSheetAttributes(attributes, excelFile, csvFiles.get(i), sheetName, partRowCounts[i - firstPart]);
+                    attributes.put(SHEET_ROW_NUM_ATT, String.valueOf(rowCount));
+                } else {
+                    addSheetAttributes(attributes, excelFile, csvFiles.get(i), sheetName, rowCount);
+                }
+                if (splitSheets) {
+                    addFragmentAttributes(attributes, fragmentId, i - firstPart, fragmentCount);
+                }
+                if (writeMetricsAttributes && sheetStatistics != null) {
+                    addSheetMetricsAttributes(attributes, sheetStatistics);
+                }
+                putAttributes(i, attributes, partSizes.get(i - firstPart));
+            }
+        }
+
+        private Writer startPart() throws IOException {
+            return openWriter(openFlowFile(createFlowFile()), writer);
+        }
+
+        private void closePart() throws IOException {
+            writer.close();
+            partSizes.add(flowFileClosed());
+        }
+    }
+
+    /**
+     * Writes all the sheets to one FlowFile: a csv with the sheet name as first column, or a tar or zip archive with
+     * one csv entry per sheet. Zip entries are streamed, tar entries need their size up front so each sheet is
+     * written to a temporary file before it is copied into the tar.
+     */
+    private class SingleFlowFileSheetOutput extends ExcelSheetOutput {
+        private final List<String> sheetNames = new ArrayList<>();
+        private final List<Integer> rowCounts = new ArrayList<>();
+        private OutputStream outputStream;
+        private ArchiveOutputStream archive;
+        // a tar entry needs its size up front, so each sheet is written to this file before it is archived
+        private Path sheetFile;
+
+        SingleFlowFileSheetOutput(ProcessSession session, FlowFile excelFile, List<FlowFile> csvFiles, BufferedEncodingWriter writer,
+                                  ConversionMetrics metrics) {
+            super(session, excelFile, csvFiles, writer, metrics);
+        }
+
+        @Override
+        public Writer startSheet(String sheetName) throws IOException {
+            boolean first = outputStream == null;
+            if (first) {
+                outputStream = openFlowFile(createFlowFile());
+                if (sheetOutput.equals(SHEET_OUTPUT_ZIP)) {
+                    archive = new ZipArchiveOutputStream(outputStream);
+                } else if (sheetOutput.equals(SHEET_OUTPUT_TAR)) {
+                    TarArchiveOutputStream tar = new TarArchiveOutputStream(outputStream, StandardCharsets.UTF_8.name());
+                    tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+                    tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+                    archive = tar;
+                    sheetFile = Files.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX);
+                }
+            }
+            if (sheetOutput.equals(SHEET_OUTPUT_ZIP)) {
+                archive.putArchiveEntry(new ZipArchiveEntry(sheetName + CSV_EXTENSION));
+                return openWriter(new CloseShieldOutputStream(archive), writer);
+            } else if (sheetOutput.equals(SHEET_OUTPUT_TAR)) {
+                return openWriter(Files.newOutputStream(sheetFile), writer);
+            }
+            OutputStream sheetStream = new CloseShieldOutputStream(outputStream);
+            return first ? openWriter(sheetStream, writer) : writer.reset(sheetStream);
+        }
+
+        @Override
+        public Writer nextPart(String sheetName) {
+            // sheets aren't split in a single FlowFile, the parts are written one after another
+            return writer;
+        }
+
+        @Override
+        public void endSheet(String sheetName, int rowCount) throws IOException {
+            writer.close();
+            if (sheetOutput.equals(SHEET_OUTPUT_ZIP)) {
+                archive.closeArchiveEntry();
+            } else if (sheetOutput.equals(SHEET_OUTPUT_TAR)) {
+                TarArchiveEntry entry = new TarArchiveEntry(sheetName + CSV_EXTENSION);
+                entry.setSize(Files.size(sheetFile));
+                archive.putArchiveEntry(entry);
+                Files.copy(sheetFile, archive);
+                archive.closeArchiveEntry();
+            }
+            sheetNames.add(sheetName);
+            rowCounts.add(rowCount);
+        }
+
+        @Override
+        void finish() throws IOException {
+            if (outputStream == null) {
+                return;
+            }
+            deleteSheetFile();
+            if (archive != null) {
+                archive.finish();
+                archive.close();
+            } else {
+                outputStream.close();
+            }
+            outputStream = null;
+            long[] size = flowFileClosed();
+
+            String extension = CSV_EXTENSION;
+            String mimeType = CSV_MIME_TYPE;
+            if (sheetOutput.equals(SHEET_OUTPUT_ZIP)) {
+                extension = ZIP_EXTENSION;
+                mimeType = ZIP_MIME_TYPE;
+            } else if (sheetOutput.equals(SHEET_OUTPUT_TAR)) {
+                extension = TAR_EXTENSION;
+                mimeType = TAR_MIME_TYPE;
+            }
+            int index = csvFiles.size() - 1;
+            String sourceFileName = excelFile.getAttribute(CoreAttributes.FILENAME.key());
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put(SOURCE_NAME_ATT, sourceFileName);
+            attributes.put(CoreAttributes.MIME_TYPE.key(), mimeType);
+            attributes.put(CoreAttributes.FILENAME.key(), (StringUtils.isNotEmpty(sourceFileName) ?
+                    FilenameUtils.removeExtension(sourceFileName) :
+                    csvFiles.get(index).getAttribute(CoreAttributes.UUID.key())) + extension);
+            attributes.put(SHEET_COUNT_ATT, String.valueOf(sheetNames.size()));
+            for (int i = 0; i < sheetNames.size(); i++) {
+                attributes.put(SHEET_ATT_PREFIX + i + SHEET_NAME_ATT_SUFFIX, sheetNames.get(i));
+                attributes.put(SHEET_ATT_PREFIX + i + SHEET_ROW_COUNT_ATT_SUFFIX, String.valueOf(rowCounts.get(i)));
+            }
+            putAttributes(index, attributes, size);
+        }
+
+        @Override
+        void abort(Exception failure) {
+            super.abort(failure);
+            deleteSheetFile();
+        }
+
+        private void deleteSheetFile() {
+            if (sheetFile == null) {
+                return;
+            }
+            try {
+                Files.deleteIfExists(sheetFile);
+            } catch (IOException exception) {
+                logger.warn("Failed to delete temporary file {}", new Object[]{sheetFile}, exception);
+            }
+            sheetFile = null;
+        }
+    }
 }
@@ -0,0 +1,38 @@
+package com.ifi.processors.csv;
+
+/**
+ * Memory shared by the concurrent tasks of the processor for the workbooks they convert. A workbook is admitted when
+ * its estimated memory fits in what is left of the budget, or when no other workbook is being converted, so that a
+ * workbook larger than the whole budget is still converted on its own.
+ */
+class MemoryBudget {
+    private final long limit;
+    private long used;
+    private int workbooks;
+
+    MemoryBudget(long limit) {
+        this.limit = limit;
+    }
+
+    synchronized boolean tryAcquire(long bytes) {
+        if (workbooks > 0 && used + bytes > limit) {
+            return false;
+        }
+        used += bytes;
+        workbooks++;
+        return true;
+    }
+
+    synchronized void release(long bytes) {
+        used -= bytes;
+        workbooks--;
+    }
+
+    synchronized long getUsed() {
+        return used;
+    }
+
+    long getLimit() {
+        return limit;
+    }
+}
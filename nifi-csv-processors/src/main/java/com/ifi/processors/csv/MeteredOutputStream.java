@@ -0,0 +1,52 @@
+package com.ifi.processors.csv;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written to a FlowFile and the time spent writing them.
+ */
+class MeteredOutputStream extends FilterOutputStream {
+    private final ConversionMetrics metrics;
+    private long byteCount;
+
+    MeteredOutputStream(OutputStream outputStream, ConversionMetrics metrics) {
+        super(outputStream);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        long startNanos = System.nanoTime();
+        out.write(b);
+        metrics.addWrite(System.nanoTime() - startNanos, 1);
+        byteCount++;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        long startNanos = System.nanoTime();
+        out.write(buffer, offset, length);
+        metrics.addWrite(System.nanoTime() - startNanos, length);
+        byteCount += length;
+    }
+
+    long getByteCount() {
+        return byteCount;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long startNanos = System.nanoTime();
+        out.flush();
+        metrics.addWrite(System.nanoTime() - startNanos, 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        long startNanos = System.nanoTime();
+        out.close();
+        metrics.addWrite(System.nanoTime() - startNanos, 0);
+    }
+}
@@ -0,0 +1,86 @@
+package com.ifi.processors.csv;
+
+import org.apache.commons.compress.compressors.lz4.BlockLZ4CompressorOutputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+import org.apache.commons.compress.compressors.lz77support.Parameters;
+import org.apache.commons.compress.compressors.snappy.FramedSnappyCompressorOutputStream;
+import org.apache.commons.compress.compressors.snappy.SnappyCompressorInputStream;
+import org.apache.commons.compress.compressors.snappy.SnappyCompressorOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Codecs the csv FlowFiles can be compressed with while they are written. All of them are implemented in Java.
+ */
+enum OutputCompression {
+    NONE(null, null) {
+        @Override
+        OutputStream compress(OutputStream outputStream, int level) {
+            return outputStream;
+        }
+    },
+    GZIP("application/gzip", ".gz") {
+        @Override
+        OutputStream compress(OutputStream outputStream, int level) throws IOException {
+            return new GZIPOutputStream(outputStream, BUFFER_SIZE) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+    },
+    LZ4("application/x-lz4-framed", ".lz4") {
+        @Override
+        OutputStream compress(OutputStream outputStream, int level) throws IOException {
+            Parameters.Builder lz77 = BlockLZ4CompressorOutputStream.createParameterBuilder();
+            // every output stream holds a block, 64 KB instead of the 4 MB default as there is one per FlowFile
+            return new FramedLZ4CompressorOutputStream(outputStream, new FramedLZ4CompressorOutputStream.Parameters(
+                    FramedLZ4CompressorOutputStream.BlockSize.K64, true, false, false, tune(lz77, level).build()));
+        }
+    },
+    SNAPPY("application/x-snappy-framed", ".sz") {
+        @Override
+        OutputStream compress(OutputStream outputStream, int level) throws IOException {
+            Parameters.Builder lz77 = SnappyCompressorOutputStream.createParameterBuilder(SnappyCompressorInputStream.DEFAULT_BLOCK_SIZE);
+            return new FramedSnappyCompressorOutputStream(outputStream, tune(lz77, level).build());
+        }
+    };
+
+    static final int MIN_LEVEL = Deflater.BEST_SPEED;
+    static final int MAX_LEVEL = Deflater.BEST_COMPRESSION;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String mimeType;
+    private final String extension;
+
+    OutputCompression(String mimeType, String extension) {
+        this.mimeType = mimeType;
+        this.extension = extension;
+    }
+
+    abstract OutputStream compress(OutputStream outputStream, int level) throws IOException;
+
+    String getMimeType() {
+        return mimeType;
+    }
+
+    String getExtension() {
+        return extension;
+    }
+
+    /**
+     * The LZ77 based codecs have no levels. The lowest levels search for matches as little as possible, the highest
+     * ones as long as it pays off and the levels in between keep the codec defaults.
+     */
+    private static Parameters.Builder tune(Parameters.Builder builder, int level) {
+        if (level <= 3) {
+            return builder.tunedForSpeed();
+        } else if (level >= 7) {
+            return builder.tunedForCompressionRatio();
+        }
+        return builder;
+    }
+}
@@ -0,0 +1,221 @@
+package com.ifi.processors.csv;
+
+import com.ifi.util.SheetOutput;
+import com.ifi.util.SheetStatistics;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sheet output that passes everything on to another output and records it, so the same conversion can later be
+ * replayed to an output with {@link #replay(InputStream, SheetOutput)} without reading the workbook again.
+ */
+class RecordingSheetOutput implements SheetOutput {
+    private static final int START_SHEET = 1;
+    private static final int CONTENT = 2;
+    private static final int NEXT_PART = 3;
+    private static final int END_SHEET = 4;
+    private static final int END = 5;
+    private static final int CHUNK_SIZE = 8192;
+
+    private final SheetOutput output;
+    private final DataOutputStream recording;
+    private final char[] chunk = new char[CHUNK_SIZE];
+    private int chunkLength;
+    private SheetStatistics statistics;
+
+    RecordingSheetOutput(SheetOutput output, OutputStream recording) {
+        this.output = output;
+        this.recording = new DataOutputStream(recording);
+    }
+
+    @Override
+    public Writer startSheet(String sheetName) throws IOException {
+        recording.writeByte(START_SHEET);
+        recording.writeUTF(sheetName);
+        statistics = null;
+        return new RecordingWriter(output.startSheet(sheetName));
+    }
+
+    @Override
+    public Writer nextPart(String sheetName) throws IOException {
+        flushChunk();
+        recording.writeByte(NEXT_PART);
+        return new RecordingWriter(output.nextPart(sheetName));
+    }
+
+    @Override
+    public void endSheet(String sheetName, int rowCount) throws IOException {
+        flushChunk();
+        recording.writeByte(END_SHEET);
+        recording.writeInt(rowCount);
+        recording.writeLong(statistics != null ? statistics.getRowCount() : 0);
+        recording.writeLong(statistics != null ? statistics.getCellCount() : 0);
+        long[] partRowCounts = statistics != null ? statistics.getPartRowCounts() : new long[0];
+        recording.writeInt(partRowCounts.length);
+        for (long partRowCount : partRowCounts) {
+            recording.writeLong(partRowCount);
+        }
+        output.endSheet(sheetName, rowCount);
+    }
+
+    @Override
+    public void workbookOpened(long openNanos) {
+        output.workbookOpened(openNanos);
+    }
+
+    @Override
+    public void sheetConverted(String sheetName, SheetStatistics statistics) {
+        this.statistics = statistics;
+        output.sheetConverted(sheetName, statistics);
+    }
+
+    /**
+     * Ends and closes the recording once every sheet has been converted.
+     */
+    void finish() throws IOException {
+        recording.writeByte(END);
+        recording.close();
+    }
+
+    /**
+     * Closes the recording of a conversion that failed.
+     */
+    void abort() {
+        try {
+            recording.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void flushChunk() throws IOException {
+        flushChunk(true);
+    }
+
+    private void flushChunk(boolean endOfContent) throws IOException {
+        int length = chunkLength;
+        // a surrogate pair must not be split between two chunks
+        if (!endOfContent && length > 0 && Character.isHighSurrogate(chunk[length - 1])) {
+            length--;
+        }
+        if (length == 0) {
+            return;
+        }
+        byte[] content = new String(chunk, 0, length).getBytes(StandardCharsets.UTF_8);
+        recording.writeByte(CONTENT);
+        recording.writeInt(content.length);
+        recording.write(content);
+        chunkLength -= length;
+        if (chunkLength > 0) {
+            chunk[0] = chunk[length];
+        }
+    }
+
+    /**
+     * Replays a recorded conversion to the output. The statistics of each sheet carry the recorded row, cell and part
+     * row counts, and the time taken by the replay.
+     */
+    static void replay(InputStream recorded, SheetOutput output) throws IOException {
+        DataInputStream recording = new DataInputStream(recorded);
+        String sheetName = null;
+        Writer writer = null;
+        long startNanos = 0;
+        try {
+            while (true) {
+                int type = recording.readByte();
+                if (type == START_SHEET) {
+                    sheetName = recording.readUTF();
+                    startNanos = System.nanoTime();
+                    writer = output.startSheet(sheetName);
+                } else if (type == CONTENT && writer != null) {
+                    byte[] content = new byte[recording.readInt()];
+                    recording.readFully(content);
+                    writer.write(new String(content, StandardCharsets.UTF_8));
+                } else if (type == NEXT_PART && writer != null) {
+                    writer = output.nextPart(sheetName);
+                } else if (type == END_SHEET && writer != null) {
+                    int rowCount = recording.readInt();
+                    long rows = recording.readLong();
+                    long cells = recording.readLong();
+                    long[] partRowCounts = new long[recording.readInt()];
+                    for (int i = 0; i < partRowCounts.length; i++) {
+                        partRowCounts[i] = recording.readLong();
+                    }
+                    output.sheetConverted(sheetName,
+                            new SheetStatistics(rows, cells, System.nanoTime() - startNanos, partRowCounts));
+                    output.endSheet(sheetName, rowCount);
+                    writer = null;
+                } else if (type == END && writer == null) {
+                    return;
+                } else {
+                    throw new IOException("Invalid recorded conversion");
+                }
+            }
+        } catch (EOFException exception) {
+            throw new IOException("Truncated recorded conversion", exception);
+        }
+    }
+
+    private class RecordingWriter extends Writer {
+        private final Writer writer;
+
+        RecordingWriter(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            writer.write(c);
+            if (chunkLength == CHUNK_SIZE) {
+                flushChunk(false);
+            }
+            chunk[chunkLength++] = (char) c;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            writer.write(buffer, offset, length);
+            while (length > 0) {
+                if (chunkLength == CHUNK_SIZE) {
+                    flushChunk(false);
+                }
+                int count = Math.min(length, CHUNK_SIZE - chunkLength);
+                System.arraycopy(buffer, offset, chunk, chunkLength, count);
+                chunkLength += count;
+                offset += count;
+                length -= count;
+            }
+        }
+
+        @Override
+        public void write(String value, int offset, int length) throws IOException {
+            writer.write(value, offset, length);
+            while (length > 0) {
+                if (chunkLength == CHUNK_SIZE) {
+                    flushChunk(false);
+                }
+                int count = Math.min(length, CHUNK_SIZE - chunkLength);
+                value.getChars(offset, offset + count, chunk, chunkLength);
+                chunkLength += count;
+                offset += count;
+                length -= count;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.ifi.processors.csv;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Enumeration;
+import java.util.Locale;
+
+/**
+ * Heap a workbook is expected to take while it is converted, worked out before it is opened. For a workbook spilled
+ * to a temporary file it comes from the uncompressed sizes of the parts of a .xlsx, which are read from the central
+ * directory of the zip, or from the size of a .xls. For a workbook read from its content it is only worked out from
+ * its size, so the content isn't read one more time. The estimate is given for the configured read and for the low
+ * memory read, a streaming read from a temporary file.
+ */
+class WorkbookMemoryEstimate {
+    // XMLBeans tree of a part compared to the size of its xml
+    private static final int XML_DOM_FACTOR = 6;
+    // the shared strings are held as UTF-16 strings
+    private static final int SHARED_STRINGS_FACTOR = 2;
+    // records and cells of an HSSFWorkbook compared to the size of the file
+    private static final int HSSF_DOM_FACTOR = 4;
+    // usual size of the xml of a .xlsx compared to the size of the package
+    static final int XLSX_COMPRESSION_FACTOR = 8;
+    private static final byte[] ZIP_MAGIC = {'P', 'K', 3, 4};
+    private static final byte[] OLE2_MAGIC = {(byte) 0xD0, (byte) 0xCF, 0x11, (byte) 0xE0};
+    private static final String SHARED_STRINGS_PART = "sharedstrings.xml";
+    private static final String STYLES_PART = "styles.xml";
+
+    private final long memory;
+    private final long lowMemory;
+
+    private WorkbookMemoryEstimate(long memory, long lowMemory) {
+        this.memory = memory;
+        this.lowMemory = lowMemory;
+    }
+
+    /**
+     * Estimates the memory taken by the workbook of the given size read from its content, without reading it.
+     *
+     * @param xls           whether the workbook is a .xls rather than a .xlsx
+     * @param streamingRead whether the workbook is read with the event model of POI
+     */
+    static WorkbookMemoryEstimate of(long size, boolean xls, boolean streamingRead) {
+        if (xls) {
+            // POIFS keeps a workbook read from a stream in memory
+            return new WorkbookMemoryEstimate(size + (streamingRead ? size : size * HSSF_DOM_FACTOR), size);
+        }
+        // the shared strings and styles are taken to be as large as the package
+        return ofXlsx(size * XLSX_COMPRESSION_FACTOR, size, size, streamingRead, false);
+    }
+
+    /**
+     * Estimates the memory taken by the workbook opened from the file.
+     *
+     * @param streamingRead whether the workbook is read with the event model of POI
+     */
+    static WorkbookMemoryEstimate of(File file, boolean streamingRead) throws IOException {
+        long size = file.length();
+        byte[] magic = new byte[ZIP_MAGIC.length];
+        int read;
+        try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+            read = IOUtils.read(inputStream, magic);
+        }
+        if (read == magic.length && startsWith(magic, ZIP_MAGIC)) {
+            return ofXlsx(file, streamingRead);
+        } else if (read == magic.length && startsWith(magic, OLE2_MAGIC)) {
+            return new WorkbookMemoryEstimate(streamingRead ? size : size * HSSF_DOM_FACTOR, size);
+        }
+        return new WorkbookMemoryEstimate(size, size);
+    }
+
+    private static WorkbookMemoryEstimate ofXlsx(File file, boolean streamingRead) throws IOException {
+        long total = 0;
+        long sharedStrings = 0;
+        long styles = 0;
+        try (ZipFile zip = new ZipFile(file)) {
+            Enumeration<ZipArchiveEntry> entries = zip.getEntries();
+            while (entries.hasMoreElements()) {
+                ZipArchiveEntry entry = entries.nextElement();
+                long size = Math.max(entry.getSize(), 0);
+                total += size;
+                String name = entry.getName().toLowerCase(Locale.ROOT);
+                if (name.endsWith(SHARED_STRINGS_PART)) {
+                    sharedStrings += size;
+                } else if (name.endsWith(STYLES_PART)) {
+                    styles += size;
+                }
+            }
+        }
+        return ofXlsx(total, sharedStrings, styles, streamingRead, true);
+    }
+
+    private static WorkbookMemoryEstimate ofXlsx(long total, long sharedStrings, long styles, boolean streamingRead,
+                                                 boolean fromFile) {
+        // OPCPackage keeps every part of a package read from a stream uncompressed in memory
+        long buffered = fromFile ? 0 : total;
+        long streamed = sharedStrings * SHARED_STRINGS_FACTOR + styles * XML_DOM_FACTOR;
+        return new WorkbookMemoryEstimate(buffered + (streamingRead ? streamed : total * XML_DOM_FACTOR), streamed);
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Memory taken with the configured read.
+     */
+    long getMemory() {
+        return memory;
+    }
+
+    /**
+     * Memory taken with a streaming read from a temporary file.
+     */
+    long getLowMemory() {
+        return lowMemory;
+    }
+}
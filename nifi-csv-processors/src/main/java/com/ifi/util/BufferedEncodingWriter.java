@@ -0,0 +1,117 @@
+package com.ifi.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Unsynchronized writer that encodes characters into a fixed size byte buffer before handing them to the
+ * underlying stream. Both buffers are kept when the writer is reset, so one instance can write many outputs
+ * without allocating per output, per row or per cell.
+ */
+public class BufferedEncodingWriter extends Writer {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final CharsetEncoder encoder;
+    private final CharBuffer charBuffer;
+    private final ByteBuffer byteBuffer;
+    private OutputStream outputStream;
+
+    public BufferedEncodingWriter(Charset charset) {
+        this(charset, DEFAULT_BUFFER_SIZE);
+    }
+
+    public BufferedEncodingWriter(Charset charset, int bufferSize) {
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.charBuffer = CharBuffer.allocate(bufferSize);
+        this.byteBuffer = ByteBuffer.allocate((int) Math.ceil(bufferSize * encoder.maxBytesPerChar()));
+    }
+
+    public BufferedEncodingWriter reset(OutputStream outputStream) {
+        this.outputStream = outputStream;
+        this.encoder.reset();
+        this.charBuffer.clear();
+        this.byteBuffer.clear();
+        return this;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (!charBuffer.hasRemaining()) {
+            encode(false);
+        }
+        charBuffer.put((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (!charBuffer.hasRemaining()) {
+                encode(false);
+            }
+            int count = Math.min(length, charBuffer.remaining());
+            charBuffer.put(chars, offset, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void write(String str, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (!charBuffer.hasRemaining()) {
+                encode(false);
+            }
+            int count = Math.min(length, charBuffer.remaining());
+            charBuffer.put(str, offset, offset + count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        encode(false);
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (outputStream == null) {
+            return;
+        }
+        try {
+            encode(true);
+            encoder.flush(byteBuffer);
+            drain();
+        } finally {
+            outputStream.close();
+            outputStream = null;
+        }
+    }
+
+    private void encode(boolean endOfInput) throws IOException {
+        charBuffer.flip();
+        CoderResult result;
+        do {
+            result = encoder.encode(charBuffer, byteBuffer, endOfInput);
+            drain();
+        } while (result.isOverflow());
+        charBuffer.compact();
+    }
+
+    private void drain() throws IOException {
+        if (byteBuffer.position() > 0) {
+            outputStream.write(byteBuffer.array(), 0, byteBuffer.position());
+            byteBuffer.clear();
+        }
+    }
+}
@@ -2,16 +2,85 @@ package com.ifi.util;
 
 import com.ifi.util.exception.InvalidDocumentException;
 import org.apache.poi.EncryptedDocumentException;
+import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 public interface CSVConverter {
 
     Workbook createWorkbook(InputStream inputStream) throws IOException, InvalidDocumentException, EncryptedDocumentException;
 
+    /**
+     * Opens a workbook file read-only. POI reads the file on demand instead of buffering the whole package in memory.
+     */
+    Workbook createWorkbook(File file) throws IOException, InvalidDocumentException, EncryptedDocumentException;
+
+    /**
+     * Creates the state needed to convert the sheets of one workbook. Contexts must not be shared between threads.
+     */
+    ConversionContext createContext(Workbook workbook);
+
     String toCSVFormat(Sheet sheet);
 
+    void toCSVFormat(Sheet sheet, Writer writer) throws IOException;
+
+    void toCSVFormat(Sheet sheet, Writer writer, ConversionContext context) throws IOException;
+
+    /**
+     * Converts a sheet of a loaded workbook to the given output, which receives several parts when the converter
+     * splits sheets by row count.
+     */
+    void toCSVFormat(Sheet sheet, SheetOutput output, ConversionContext context) throws IOException;
+
+    /**
+     * Reads the cells of a row of a loaded workbook as typed values instead of csv text, over the column range of the
+     * projection: a Double, or a java.util.Date for a date formatted number, a String, a Boolean, the error text of
+     * an error cell, and null for a missing or blank cell. Formulas are read as configured for the csv conversion.
+     */
+    void rowToValues(Row row, List<Object> values, ConversionContext context);
+
+    /**
+     * Streams the given sheets of an .xls or .xlsx workbook to CSV row by row, without building the workbook model.
+     * All sheets are converted, in workbook order, when sheetNames is null.
+     */
+    void toCSVFormat(InputStream inputStream, String[] sheetNames, SheetOutput output) throws IOException, InvalidDocumentException;
+
+    /**
+     * Same as {@link #toCSVFormat(InputStream, String[], SheetOutput)}, but the sheets are converted concurrently
+     * on the given executor. The output is still called from the calling thread only, in sheet order.
+     */
+    void toCSVFormat(InputStream inputStream, String[] sheetNames, SheetOutput output, Executor executor)
+            throws IOException, InvalidDocumentException;
+
+    /**
+     * Same as {@link #toCSVFormat(InputStream, String[], SheetOutput)} for the sheets chosen by the selector. Only the
+     * selected sheets are parsed. When an executor is given the sheets following the one being written are converted
+     * ahead on it, a bounded number at a time, and the output is still called from the calling thread only, in sheet
+     * order.
+     */
+    void toCSVFormat(InputStream inputStream, SheetSelector selector, SheetOutput output, Executor executor)
+            throws IOException, InvalidDocumentException;
+
+    /**
+     * Same as {@link #toCSVFormat(InputStream, SheetSelector, SheetOutput, Executor)}, reading the workbook from a file
+     * with random access instead of buffering it in memory. The sheets of .xls files are converted sequentially.
+     */
+    void toCSVFormat(File file, SheetSelector selector, SheetOutput output, Executor executor)
+            throws IOException, InvalidDocumentException;
+
+    /**
+     * Lists the name, dimension and row count of the selected sheets of an .xls or .xlsx workbook without converting
+     * any cell.
+     */
+    List<SheetInfo> readSheetInfo(InputStream inputStream, SheetSelector selector) throws IOException, InvalidDocumentException;
+
+    List<SheetInfo> readSheetInfo(File file, SheetSelector selector) throws IOException, InvalidDocumentException;
+
 }
@@ -3,105 +3,1036 @@ package com.ifi.util;
 import com.ifi.util.exception.InvalidDocumentException;
 import org.apache.poi.EmptyFileException;
 import org.apache.poi.EncryptedDocumentException;
+import org.apache.poi.hssf.OldExcelFormatException;
+import org.apache.poi.hssf.eventusermodel.AbortableHSSFListener;
+import org.apache.poi.hssf.eventusermodel.FormatTrackingHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.eventusermodel.HSSFUserException;
+import org.apache.poi.hssf.eventusermodel.MissingRecordAwareHSSFListener;
+import org.apache.poi.hssf.eventusermodel.dummyrecord.LastCellOfRowDummyRecord;
+import org.apache.poi.hssf.model.InternalWorkbook;
+import org.apache.poi.hssf.record.*;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.poifs.crypt.Decryptor;
+import org.apache.poi.poifs.filesystem.DirectoryNode;
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
 import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.IOUtils;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.CharArrayWriter;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 public class CSVConverterImp implements CSVConverter {
-    private String delimiter = ",";
-    private final String EMPTY_STRING = "";
-    private FormulaEvaluator evaluator;
-    private DataFormatter formatter;
-    private EscapeChar escapeChar = EscapeChar.EXCEL_STYLE_ESCAPING;
+    private final CSVDialect dialect;
+    private final int maxRowsPerPart;
+    private final boolean repeatHeader;
+    private final FormulaEvaluation formulaEvaluation;
+    private final ValueFormat valueFormat;
+    private final boolean sheetNameColumn;
+    private final CellProjection projection;
+    private final int sheetParallelism;
 
     public CSVConverterImp() {
+        this(new CSVDialect.Builder().build());
     }
 
     public CSVConverterImp(String delimiter, EscapeChar escapeChar) {
-        this.delimiter = delimiter;
-        this.escapeChar = escapeChar;
+        this(new CSVDialect.Builder().delimiter(delimiter).escapeChar(escapeChar).build());
+    }
+
+    public CSVConverterImp(CSVDialect dialect) {
+        this(new Builder().dialect(dialect));
+    }
+
+    private CSVConverterImp(Builder builder) {
+        this.dialect = builder.dialect;
+        this.maxRowsPerPart = builder.maxRowsPerPart;
+        this.repeatHeader = builder.repeatHeader;
+        this.formulaEvaluation = builder.formulaEvaluation;
+        this.valueFormat = builder.valueFormat;
+        this.sheetNameColumn = builder.sheetNameColumn;
+        this.projection = builder.projection;
+        this.sheetParallelism = builder.sheetParallelism;
     }
 
     public Workbook createWorkbook(InputStream inputStream) throws IOException, InvalidDocumentException, EncryptedDocumentException {
         Workbook workbook;
         try {
             workbook = WorkbookFactory.create(inputStream);
-            this.evaluator = workbook.getCreationHelper().createFormulaEvaluator();
-            this.formatter = new DataFormatter();
         } catch (EmptyFileException exception) {
             throw new InvalidDocumentException();
         }
         return workbook;
     }
 
+    public Workbook createWorkbook(File file) throws IOException, InvalidDocumentException, EncryptedDocumentException {
+        Workbook workbook;
+        try {
+            workbook = WorkbookFactory.create(file, null, true);
+        } catch (EmptyFileException exception) {
+            throw new InvalidDocumentException();
+        }
+        return workbook;
+    }
+
+    public ConversionContext createContext(Workbook workbook) {
+        return new ConversionContext(workbook, formulaEvaluation, valueFormat);
+    }
+
     public String toCSVFormat(Sheet sheet) {
-        StringBuilder builder = new StringBuilder();
+        StringWriter writer = new StringWriter();
+        try {
+            toCSVFormat(sheet, writer);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+        return writer.toString();
+    }
+
+    public void toCSVFormat(Sheet sheet, Writer writer) throws IOException {
+        toCSVFormat(sheet, writer, createContext(sheet.getWorkbook()));
+    }
+
+    public void toCSVFormat(Sheet sheet, Writer writer, ConversionContext context) throws IOException {
+        CSVDialectWriter csvWriter = new CSVDialectWriter(dialect, writer);
+        if (sheetNameColumn) {
+            csvWriter.setLeadingField(sheet.getSheetName());
+        }
+        toCSVFormat(sheet, csvWriter, context);
+    }
+
+    public void toCSVFormat(Sheet sheet, SheetOutput output, ConversionContext context) throws IOException {
+        String sheetName = sheet.getSheetName();
+        long startNanos = System.nanoTime();
+        CSVDialectWriter csvWriter = createCSVWriter(sheetName, output.startSheet(sheetName), () -> output.nextPart(sheetName));
+        int rowCount = toCSVFormat(sheet, csvWriter, context);
+        output.sheetConverted(sheetName, createStatistics(csvWriter, startNanos));
+        output.endSheet(sheetName, rowCount);
+    }
+
+    private int toCSVFormat(Sheet sheet, CSVDialectWriter csvWriter, ConversionContext context) throws IOException {
         if (sheet.getPhysicalNumberOfRows() <= 0) {
-            return EMPTY_STRING;
+            return 0;
         }
-        int lastRowNum = sheet.getLastRowNum();
-        for (int j = 0; j <= lastRowNum; j++) {
+        ProjectedRowWriter rowWriter = new ProjectedRowWriter(projection, csvWriter);
+        int rowCount = 0;
+        int lastRowNum = Math.min(sheet.getLastRowNum(), projection.getLastRow());
+        for (int j = projection.getFirstRow(); j <= lastRowNum; j++) {
             Row row = sheet.getRow(j);
-            String csvLine = this.rowToCSVFormat(row);
-            builder.append(csvLine);
-            builder.append("\n");
+            if (row != null) {
+                this.rowToCSVFormat(row, rowWriter, context);
+                rowWriter.endRow(j);
+                rowCount++;
+            }
         }
-        return builder.toString();
+        rowWriter.finish(sheet.getLastRowNum());
+        return rowCount;
     }
 
-    private String rowToCSVFormat(Row row) {
-        StringBuilder builder = new StringBuilder();
-        Cell cell;
-        int lastCellNum;
-        if (row == null) {
-            return EMPTY_STRING;
-        }
-        lastCellNum = row.getLastCellNum();
-        for (int i = 0; i < lastCellNum; i++) {
-            cell = row.getCell(i, Row.MissingCellPolicy.RETURN_BLANK_AS_NULL);
-            String fieldData;
-            if (cell != null) {
-                if (cell.getCellType() != CellType.FORMULA) {
-                    fieldData = this.formatter.formatCellValue(cell);
+    public void toCSVFormat(InputStream inputStream, String[] sheetNames, SheetOutput output) throws IOException, InvalidDocumentException {
+        toCSVFormat(inputStream, sheetNames, output, null);
+    }
+
+    public void toCSVFormat(InputStream inputStream, String[] sheetNames, SheetOutput output, Executor executor)
+            throws IOException, InvalidDocumentException {
+        toCSVFormat(inputStream, SheetSelector.ofNames(sheetNames), output, executor);
+    }
+
+    public void toCSVFormat(InputStream inputStream, SheetSelector selector, SheetOutput output, Executor executor)
+            throws IOException, InvalidDocumentException {
+        read(inputStream, new SheetConverter(selector, output, executor, executor, System.nanoTime()));
+    }
+
+    public void toCSVFormat(File file, SheetSelector selector, SheetOutput output, Executor executor)
+            throws IOException, InvalidDocumentException {
+        // A file backed POIFS reads its blocks through one shared channel position, so the sheets are read one at a time
+        read(file, new SheetConverter(selector, output, executor, null, System.nanoTime()));
+    }
+
+    public List<SheetInfo> readSheetInfo(InputStream inputStream, SheetSelector selector) throws IOException, InvalidDocumentException {
+        return read(inputStream, new SheetInfoReader(selector));
+    }
+
+    public List<SheetInfo> readSheetInfo(File file, SheetSelector selector) throws IOException, InvalidDocumentException {
+        return read(file, new SheetInfoReader(selector));
+    }
+
+    private <T> T read(InputStream inputStream, WorkbookReader<T> reader) throws IOException, InvalidDocumentException {
+        InputStream workbookStream = FileMagic.prepareToCheckMagic(inputStream);
+        FileMagic fileMagic;
+        try {
+            fileMagic = FileMagic.valueOf(workbookStream);
+        } catch (EmptyFileException exception) {
+            throw new InvalidDocumentException();
+        }
+        if (fileMagic == FileMagic.OOXML) {
+            try {
+                return read(OPCPackage.open(workbookStream), reader);
+            } catch (OpenXML4JException exception) {
+                throw new IOException(exception);
+            }
+        } else if (fileMagic == FileMagic.OLE2) {
+            return read(new POIFSFileSystem(workbookStream), reader);
+        }
+        throw new InvalidDocumentException();
+    }
+
+    private <T> T read(File file, WorkbookReader<T> reader) throws IOException, InvalidDocumentException {
+        FileMagic fileMagic;
+        try {
+            fileMagic = FileMagic.valueOf(file);
+        } catch (EmptyFileException exception) {
+            throw new InvalidDocumentException();
+        }
+        if (fileMagic == FileMagic.OOXML) {
+            try {
+                return read(OPCPackage.open(file, PackageAccess.READ), reader);
+            } catch (OpenXML4JException exception) {
+                throw new IOException(exception);
+            }
+        } else if (fileMagic == FileMagic.OLE2) {
+            return read(new POIFSFileSystem(file, true), reader);
+        }
+        throw new InvalidDocumentException();
+    }
+
+    private <T> T read(OPCPackage pkg, WorkbookReader<T> reader) throws IOException {
+        try {
+            XSSFReader xssfReader = new XSSFReader(pkg);
+            return reader.readXSSF(pkg, xssfReader, selectSheets(xssfReader, reader.selector));
+        } catch (OpenXML4JException | SAXException exception) {
+            throw new IOException(exception);
+        } finally {
+            pkg.revert();
+        }
+    }
+
+    private <T> T read(POIFSFileSystem poifs, WorkbookReader<T> reader) throws IOException, InvalidDocumentException {
+        try (POIFSFileSystem fileSystem = poifs) {
+            DirectoryNode root = fileSystem.getRoot();
+            String workbookEntryName = getWorkbookEntryName(root);
+            WorkbookGlobalsListener globals = new WorkbookGlobalsListener();
+            try (InputStream globalsStream = root.createDocumentInputStream(workbookEntryName)) {
+                processHSSFRecords(globals, globalsStream);
+            }
+            if (globals.encrypted) {
+                throw new EncryptedDocumentException("Encrypted .xls workbooks can't be streamed");
+            }
+            HSSFSheetStreams sheetStreams = sheet -> {
+                InputStream sheetStream = root.createDocumentInputStream(workbookEntryName);
+                IOUtils.skipFully(sheetStream, sheet.getPositionOfBof());
+                return sheetStream;
+            };
+            return reader.readHSSF(globals, sheetStreams, selectSheets(globals.sheets, reader.selector));
+        }
+    }
+
+    private int streamXSSFSheetToCSV(PackagePart sheet, StylesTable styles, ReadOnlySharedStringsTable strings,
+                                     CSVDialectWriter csvWriter) throws IOException {
+        ConversionContext context = createContext(null);
+        ProjectedRowWriter rowWriter = new ProjectedRowWriter(projection, csvWriter);
+        SheetToCSVHandler handler = new SheetToCSVHandler(rowWriter, context);
+        try (InputStream sheetStream = sheet.getInputStream()) {
+            XMLReader sheetParser = XMLHelper.newXMLReader();
+            sheetParser.setContentHandler(new XSSFSheetXMLHandler(styles, strings, handler, context.getFormatter(), false) {
+                // Depth inside a row or cell element that is not converted, whose content is not even formatted
+                private int skippedDepth;
+
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes)
+                        throws SAXException {
+                    if (skippedDepth > 0) {
+                        skippedDepth++;
+                        return;
+                    }
+                    if ("row".equals(localName)) {
+                        String rowReference = attributes.getValue("r");
+                        if (rowReference != null) {
+                            int rowNum = Integer.parseInt(rowReference) - 1;
+                            if (rowWriter.isPastLastRow(rowNum)) {
+                                throw new SheetEndReachedException();
+                            } else if (!rowWriter.isRowSelected(rowNum)) {
+                                skippedDepth = 1;
+                                return;
+                            }
+                        }
+                    } else if ("c".equals(localName)) {
+                        if (!handler.startCell(attributes.getValue("r"), attributes.getValue("t"))) {
+                            skippedDepth = 1;
+                            return;
+                        }
+                    }
+                    super.startElement(uri, localName, qName, attributes);
+                }
+
+                @Override
+                public void endElement(String uri, String localName, String qName) throws SAXException {
+                    if (skippedDepth > 0) {
+                        skippedDepth--;
+                        return;
+                    }
+                    super.endElement(uri, localName, qName);
+                }
+
+                @Override
+                public void characters(char[] ch, int start, int length) throws SAXException {
+                    if (skippedDepth == 0) {
+                        super.characters(ch, start, length);
+                    }
+                }
+            });
+            sheetParser.parse(new InputSource(sheetStream));
+        } catch (SheetEndReachedException exception) {
+            // the rows after the projected range are not parsed
+        } catch (UncheckedIOException exception) {
+            throw exception.getCause();
+        } catch (SAXException | ParserConfigurationException exception) {
+            throw new IOException(exception);
+        }
+        return handler.rowCount;
+    }
+
+    private List<SelectedSheet<PackagePart>> selectSheets(XSSFReader reader, SheetSelector selector)
+            throws IOException, InvalidFormatException {
+        List<String> sheetNames = new ArrayList<>();
+        List<PackagePart> sheetParts = new ArrayList<>();
+        XSSFReader.SheetIterator iterator = (XSSFReader.SheetIterator) reader.getSheetsData();
+        while (iterator.hasNext()) {
+            iterator.next().close();
+            sheetNames.add(iterator.getSheetName());
+            sheetParts.add(iterator.getSheetPart());
+        }
+        return selectSheets(sheetNames, sheetParts, selector);
+    }
+
+    private void processHSSFRecords(AbortableHSSFListener listener, InputStream inputStream) throws IOException {
+        HSSFRequest request = new HSSFRequest();
+        request.addListenerForAllRecords(listener);
+        try {
+            new HSSFEventFactory().abortableProcessEvents(request, inputStream);
+        } catch (HSSFUserException exception) {
+            throw new IOException(exception);
+        }
+    }
+
+    private String getWorkbookEntryName(DirectoryNode root) throws InvalidDocumentException {
+        for (String entryName : InternalWorkbook.WORKBOOK_DIR_ENTRY_NAMES) {
+            if (root.hasEntry(entryName)) {
+                return entryName;
+            }
+        }
+        if (root.hasEntry(InternalWorkbook.OLD_WORKBOOK_DIR_ENTRY_NAME)) {
+            throw new OldExcelFormatException("Excel 5.0/7.0 (BIFF5) workbooks are not supported");
+        }
+        if (root.hasEntry(Decryptor.DEFAULT_POIFS_ENTRY)) {
+            throw new EncryptedDocumentException("Encrypted .xlsx workbooks are not supported");
+        }
+        throw new InvalidDocumentException();
+    }
+
+    private List<SelectedSheet<BoundSheetRecord>> selectSheets(List<BoundSheetRecord> workbookSheets, SheetSelector selector) {
+        List<String> sheetNames = new ArrayList<>();
+        for (BoundSheetRecord sheet : workbookSheets) {
+            sheetNames.add(sheet.getSheetname());
+        }
+        return selectSheets(sheetNames, workbookSheets, selector);
+    }
+
+    private static <S> List<SelectedSheet<S>> selectSheets(List<String> sheetNames, List<S> sheets, SheetSelector selector) {
+        List<SelectedSheet<S>> selectedSheets = new ArrayList<>();
+        for (int index : selector.select(sheetNames)) {
+            selectedSheets.add(new SelectedSheet<>(index, sheetNames.get(index), sheets.get(index)));
+        }
+        return selectedSheets;
+    }
+
+    /**
+     * Converts the sheets to the output in order. With an executor, the sheet whose turn it is is converted by the
+     * calling thread straight to the output, while at most sheetParallelism - 1 of the following sheets are converted
+     * ahead on the executor, each held in memory until its turn. A sheet whose conversion ahead hasn't started yet
+     * when its turn comes is converted by the calling thread instead.
+     */
+    private void convertSheets(Map<String, SheetConversion> conversions, SheetOutput output, Executor executor)
+            throws IOException {
+        if (executor == null) {
+            for (Map.Entry<String, SheetConversion> conversion : conversions.entrySet()) {
+                convertSheet(conversion.getKey(), conversion.getValue(), output);
+            }
+            return;
+        }
+
+        List<Map.Entry<String, SheetConversion>> sheets = new ArrayList<>(conversions.entrySet());
+        List<FutureTask<ConvertedSheet>> tasks = new ArrayList<>();
+        try {
+            for (int i = 0; i < sheets.size(); i++) {
+                while (tasks.size() < sheets.size() && tasks.size() < i + sheetParallelism) {
+                    if (tasks.size() == i) {
+                        tasks.add(null);
+                    } else {
+                        FutureTask<ConvertedSheet> task = createConversionTask(sheets.get(tasks.size()));
+                        tasks.add(task);
+                        executor.execute(task);
+                    }
+                }
+                String sheetName = sheets.get(i).getKey();
+                FutureTask<ConvertedSheet> task = tasks.set(i, null);
+                if (task == null || task.cancel(false)) {
+                    convertSheet(sheetName, sheets.get(i).getValue(), output);
                 } else {
-                    fieldData = this.formatter.formatCellValue(cell, this.evaluator);
+                    ConvertedSheet convertedSheet = task.get();
+                    convertedSheet.parts.get(0).writeTo(output.startSheet(sheetName));
+                    for (int j = 1; j < convertedSheet.parts.size(); j++) {
+                        convertedSheet.parts.get(j).writeTo(output.nextPart(sheetName));
+                    }
+                    output.sheetConverted(sheetName, convertedSheet.statistics);
+                    output.endSheet(sheetName, convertedSheet.rowCount);
                 }
-                builder.append(escapeEmbeddedCharacters(fieldData));
             }
-            if (i != lastCellNum - 1) {
-                builder.append(delimiter);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while converting sheets");
+        } catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            for (FutureTask<ConvertedSheet> task : tasks) {
+                if (task != null) {
+                    task.cancel(true);
+                }
             }
         }
-        return builder.toString();
     }
 
-    private String escapeEmbeddedCharacters(String fieldData) {
-        StringBuilder builder;
-        if (this.escapeChar == EscapeChar.EXCEL_STYLE_ESCAPING) {
-            if (fieldData.contains("\"")) {
-                builder = new StringBuilder(fieldData.replaceAll("\"", "\\\"\\\""));
-                builder.insert(0, "\"");
-                builder.append("\"");
-            } else {
-                builder = new StringBuilder(fieldData);
-                if ((builder.indexOf(this.delimiter)) > -1 ||
-                        (builder.indexOf("\n")) > -1) {
-                    builder.insert(0, "\"");
-                    builder.append("\"");
+    private void convertSheet(String sheetName, SheetConversion conversion, SheetOutput output) throws IOException {
+        long startNanos = System.nanoTime();
+        CSVDialectWriter csvWriter = createCSVWriter(sheetName, output.startSheet(sheetName), () -> output.nextPart(sheetName));
+        int rowCount = conversion.convert(csvWriter);
+        output.sheetConverted(sheetName, createStatistics(csvWriter, startNanos));
+        output.endSheet(sheetName, rowCount);
+    }
+
+    private FutureTask<ConvertedSheet> createConversionTask(Map.Entry<String, SheetConversion> conversion) {
+        return new FutureTask<>(() -> {
+            long startNanos = System.nanoTime();
+            List<CharArrayWriter> parts = new ArrayList<>();
+            parts.add(new CharArrayWriter());
+            CSVDialectWriter csvWriter = createCSVWriter(conversion.getKey(), parts.get(0), () -> {
+                CharArrayWriter part = new CharArrayWriter();
+                parts.add(part);
+                return part;
+            });
+            int rowCount = conversion.getValue().convert(csvWriter);
+            return new ConvertedSheet(parts, rowCount, createStatistics(csvWriter, startNanos));
+        });
+    }
+
+    private static SheetStatistics createStatistics(CSVDialectWriter csvWriter, long startNanos) {
+        long conversionNanos = System.nanoTime() - startNanos;
+        if (csvWriter instanceof SplittingCSVWriter) {
+            return new SheetStatistics(csvWriter.getRecordCount(), csvWriter.getValueCount(), conversionNanos,
+                    ((SplittingCSVWriter) csvWriter).getPartRowCounts());
+        }
+        return new SheetStatistics(csvWriter.getRecordCount(), csvWriter.getValueCount(), conversionNanos);
+    }
+
+    private CSVDialectWriter createCSVWriter(String sheetName, Writer writer, SplittingCSVWriter.NextPart nextPart) {
+        CSVDialectWriter csvWriter = maxRowsPerPart > 0 ?
+                new SplittingCSVWriter(dialect, writer, maxRowsPerPart, repeatHeader, nextPart) :
+                new CSVDialectWriter(dialect, writer);
+        if (sheetNameColumn) {
+            csvWriter.setLeadingField(sheetName);
+        }
+        return csvWriter;
+    }
+
+    private void rowToCSVFormat(Row row, ProjectedRowWriter rowWriter, ConversionContext context) {
+        Cell cell;
+        int lastCellNum = Math.min(row.getLastCellNum() - 1, projection.getLastColumn());
+        rowWriter.cellPresent(lastCellNum);
+        for (int i = projection.getFirstColumn(); i <= lastCellNum; i++) {
+            if (rowWriter.isCellSelected(i)) {
+                cell = row.getCell(i, Row.MissingCellPolicy.RETURN_BLANK_AS_NULL);
+                rowWriter.cell(i, cell != null ? formatCell(cell, context) : null);
+            }
+        }
+    }
+
+    public void rowToValues(Row row, List<Object> values, ConversionContext context) {
+        values.clear();
+        int lastCellNum = Math.min(row.getLastCellNum() - 1, projection.getLastColumn());
+        for (int i = projection.getFirstColumn(); i <= lastCellNum; i++) {
+            Cell cell = row.getCell(i, Row.MissingCellPolicy.RETURN_BLANK_AS_NULL);
+            values.add(cell != null ? cellValue(cell, context) : null);
+        }
+    }
+
+    private String formatCell(Cell cell, ConversionContext context) {
+        switch (getResultType(cell, context)) {
+            case NUMERIC:
+                return context.formatNumber(cell.getNumericCellValue(), cell.getCellStyle());
+            case STRING:
+                return cell.getRichStringCellValue().getString();
+            case BOOLEAN:
+                return context.formatBoolean(cell.getBooleanCellValue());
+            case ERROR:
+                return FormulaError.forInt(cell.getErrorCellValue()).getString();
+            default:
+                return "";
+        }
+    }
+
+    private Object cellValue(Cell cell, ConversionContext context) {
+        switch (getResultType(cell, context)) {
+            case NUMERIC:
+                return DateUtil.isCellDateFormatted(cell) ? cell.getDateCellValue() : (Object) cell.getNumericCellValue();
+            case STRING:
+                return cell.getRichStringCellValue().getString();
+            case BOOLEAN:
+                return cell.getBooleanCellValue();
+            case ERROR:
+                return FormulaError.forInt(cell.getErrorCellValue()).getString();
+            default:
+                return null;
+        }
+    }
+
+    private static CellType getResultType(Cell cell, ConversionContext context) {
+        CellType cellType = cell.getCellType();
+        if (cellType == CellType.FORMULA) {
+            cellType = context.getEvaluator().evaluateFormulaCell(cell);
+        }
+        return cellType;
+    }
+
+    private static class SheetToCSVHandler implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final ProjectedRowWriter rowWriter;
+        private final ConversionContext context;
+        private String lastCellReference;
+        private int lastCellNum;
+        private boolean booleanCell;
+        private boolean rowSelected;
+        private int rowCount;
+
+        SheetToCSVHandler(ProjectedRowWriter rowWriter, ConversionContext context) {
+            this.rowWriter = rowWriter;
+            this.context = context;
+        }
+
+        /**
+         * Returns whether the cell is converted.
+         */
+        boolean startCell(String cellReference, String cellType) {
+            lastCellReference = cellReference;
+            lastCellNum = cellReference != null ? new CellReference(cellReference).getCol() : lastCellNum + 1;
+            booleanCell = "b".equals(cellType);
+            if (!rowSelected) {
+                return false;
+            }
+            rowWriter.cellPresent(lastCellNum);
+            return rowWriter.isCellSelected(lastCellNum);
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            rowSelected = rowWriter.isRowSelected(rowNum);
+            lastCellNum = -1;
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            if (!rowSelected) {
+                return;
+            }
+            try {
+                rowWriter.endRow(rowNum);
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+            rowCount++;
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            int cellNum = cellReference == null || cellReference.equals(lastCellReference) ?
+                    lastCellNum : new CellReference(cellReference).getCol();
+            if (!rowSelected || !rowWriter.isCellSelected(cellNum)) {
+                return;
+            }
+            if (booleanCell) {
+                formattedValue = context.formatBoolean("TRUE".equals(formattedValue));
+            }
+            rowWriter.cell(cellNum, formattedValue);
+        }
+    }
+
+    /**
+     * Stops parsing a sheet once the rows of the projection have been read. As it is only control flow, no stack
+     * trace is filled in.
+     */
+    private static class SheetEndReachedException extends SAXException {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    private interface SheetConversion {
+        int convert(CSVDialectWriter csvWriter) throws IOException;
+    }
+
+    private static class SelectedSheet<S> {
+        private final int index;
+        private final String name;
+        private final S sheet;
+
+        SelectedSheet(int index, String name, S sheet) {
+            this.index = index;
+            this.name = name;
+            this.sheet = sheet;
+        }
+    }
+
+    private interface HSSFSheetStreams {
+        InputStream open(BoundSheetRecord sheet) throws IOException;
+    }
+
+    /**
+     * Reads the selected sheets of a workbook, either from an opened .xlsx package or from the globals and sheet
+     * record streams of an .xls file.
+     */
+    private abstract static class WorkbookReader<T> {
+        private final SheetSelector selector;
+
+        WorkbookReader(SheetSelector selector) {
+            this.selector = selector;
+        }
+
+        abstract T readXSSF(OPCPackage pkg, XSSFReader reader, List<SelectedSheet<PackagePart>> sheets)
+                throws IOException, OpenXML4JException, SAXException;
+
+        abstract T readHSSF(WorkbookGlobalsListener globals, HSSFSheetStreams sheetStreams,
+                            List<SelectedSheet<BoundSheetRecord>> sheets) throws IOException;
+    }
+
+    private class SheetConverter extends WorkbookReader<Void> {
+        private final SheetOutput output;
+        private final Executor xssfExecutor;
+        private final Executor hssfExecutor;
+        private final long startNanos;
+
+        SheetConverter(SheetSelector selector, SheetOutput output, Executor xssfExecutor, Executor hssfExecutor, long startNanos) {
+            super(selector);
+            this.output = output;
+            this.xssfExecutor = xssfExecutor;
+            this.hssfExecutor = hssfExecutor;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        Void readXSSF(OPCPackage pkg, XSSFReader reader, List<SelectedSheet<PackagePart>> sheets)
+                throws IOException, OpenXML4JException, SAXException {
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            StylesTable styles = reader.getStylesTable();
+            Map<String, SheetConversion> conversions = new LinkedHashMap<>();
+            for (SelectedSheet<PackagePart> sheet : sheets) {
+                conversions.putIfAbsent(sheet.name, csvWriter -> streamXSSFSheetToCSV(sheet.sheet, styles, strings, csvWriter));
+            }
+            output.workbookOpened(System.nanoTime() - startNanos);
+            convertSheets(conversions, output, xssfExecutor);
+            return null;
+        }
+
+        @Override
+        Void readHSSF(WorkbookGlobalsListener globals, HSSFSheetStreams sheetStreams,
+                      List<SelectedSheet<BoundSheetRecord>> sheets) throws IOException {
+            Map<String, SheetConversion> conversions = new LinkedHashMap<>();
+            for (SelectedSheet<BoundSheetRecord> sheet : sheets) {
+                conversions.putIfAbsent(sheet.name, csvWriter -> {
+                    SheetToCSVListener listener = new SheetToCSVListener(globals, csvWriter);
+                    try (InputStream sheetStream = sheetStreams.open(sheet.sheet)) {
+                        processHSSFRecords(listener, sheetStream);
+                    } catch (UncheckedIOException exception) {
+                        throw exception.getCause();
+                    }
+                    return listener.rowCount;
+                });
+            }
+            output.workbookOpened(System.nanoTime() - startNanos);
+            convertSheets(conversions, output, hssfExecutor);
+            return null;
+        }
+    }
+
+    private class SheetInfoReader extends WorkbookReader<List<SheetInfo>> {
+
+        SheetInfoReader(SheetSelector selector) {
+            super(selector);
+        }
+
+        @Override
+        List<SheetInfo> readXSSF(OPCPackage pkg, XSSFReader reader, List<SelectedSheet<PackagePart>> sheets)
+                throws IOException, SAXException {
+            List<SheetInfo> sheetInfos = new ArrayList<>();
+            for (SelectedSheet<PackagePart> sheet : sheets) {
+                SheetInfoHandler handler = new SheetInfoHandler();
+                try (InputStream sheetStream = sheet.sheet.getInputStream()) {
+                    XMLReader sheetParser = XMLHelper.newXMLReader();
+                    sheetParser.setContentHandler(handler);
+                    sheetParser.parse(new InputSource(sheetStream));
+                } catch (ParserConfigurationException exception) {
+                    throw new IOException(exception);
                 }
+                sheetInfos.add(new SheetInfo(sheet.index, sheet.name, handler.dimension, handler.rowCount));
             }
-            return builder.toString();
-        } else if (escapeChar == EscapeChar.UNIX_STYLE_ESCAPING) {
-            if (fieldData.contains(this.delimiter)) {
-                fieldData = fieldData.replaceAll(this.delimiter, ("\\\\" + this.delimiter));
+            return sheetInfos;
+        }
+
+        @Override
+        List<SheetInfo> readHSSF(WorkbookGlobalsListener globals, HSSFSheetStreams sheetStreams,
+                                 List<SelectedSheet<BoundSheetRecord>> sheets) throws IOException {
+            List<SheetInfo> sheetInfos = new ArrayList<>();
+            for (SelectedSheet<BoundSheetRecord> sheet : sheets) {
+                SheetInfoListener listener = new SheetInfoListener();
+                try (InputStream sheetStream = sheetStreams.open(sheet.sheet)) {
+                    processHSSFRecords(listener, sheetStream);
+                }
+                sheetInfos.add(new SheetInfo(sheet.index, sheet.name, listener.dimension, listener.rowCount));
             }
-            if (fieldData.contains("\n")) {
-                fieldData = fieldData.replaceAll("\n", "\\\\\n");
+            return sheetInfos;
+        }
+    }
+
+    private static class SheetInfoHandler extends DefaultHandler {
+        private String dimension;
+        private int rowCount;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if ("row".equals(localName)) {
+                rowCount++;
+            } else if ("dimension".equals(localName)) {
+                dimension = attributes.getValue("ref");
             }
-            return (fieldData);
-        } else {
-            return (fieldData);
+        }
+    }
+
+    private static class SheetInfoListener extends AbortableHSSFListener {
+        private String dimension;
+        private int rowCount;
+        private int depth;
+
+        @Override
+        public short abortableProcessRecord(Record record) {
+            if (record instanceof BOFRecord) {
+                depth++;
+            } else if (record instanceof EOFRecord && --depth == 0) {
+                return 1;
+            } else if (depth == 1 && record instanceof DimensionsRecord) {
+                DimensionsRecord dimensions = (DimensionsRecord) record;
+                if (dimensions.getLastRow() > dimensions.getFirstRow() && dimensions.getLastCol() > dimensions.getFirstCol()) {
+                    dimension = new CellRangeAddress(dimensions.getFirstRow(), dimensions.getLastRow() - 1,
+                            dimensions.getFirstCol(), dimensions.getLastCol() - 1).formatAsString();
+                }
+            } else if (depth == 1 && record instanceof RowRecord) {
+                rowCount++;
+            }
+            return 0;
+        }
+    }
+
+    private static class ConvertedSheet {
+        private final List<CharArrayWriter> parts;
+        private final int rowCount;
+        private final SheetStatistics statistics;
+
+        ConvertedSheet(List<CharArrayWriter> parts, int rowCount, SheetStatistics statistics) {
+            this.parts = parts;
+            this.rowCount = rowCount;
+            this.statistics = statistics;
+        }
+    }
+
+    private static class WorkbookGlobalsListener extends AbortableHSSFListener {
+        private final List<BoundSheetRecord> sheets = new ArrayList<>();
+        private final List<Record> formatRecords = new ArrayList<>();
+        private SSTRecord sharedStrings;
+        private boolean encrypted;
+
+        @Override
+        public short abortableProcessRecord(Record record) {
+            if (record instanceof BoundSheetRecord) {
+                sheets.add((BoundSheetRecord) record);
+            } else if (record instanceof SSTRecord) {
+                sharedStrings = (SSTRecord) record;
+            } else if (record instanceof FormatRecord || record instanceof ExtendedFormatRecord) {
+                formatRecords.add(record);
+            } else if (record instanceof FilePassRecord) {
+                encrypted = true;
+            } else if (record instanceof EOFRecord) {
+                return 1;
+            }
+            return 0;
+        }
+    }
+
+    private class SheetToCSVListener extends AbortableHSSFListener {
+        // cached result types of a FormulaRecord, the codes of the matching CellType
+        private static final int CACHED_STRING = 1;
+        private static final int CACHED_BOOLEAN = 4;
+        private static final int CACHED_ERROR = 5;
+
+        private final FormatTrackingHSSFListener formatListener =
+                new FormatTrackingHSSFListener(new MissingRecordAwareHSSFListener(this::processCellRecord));
+        private final SSTRecord sharedStrings;
+        private final ProjectedRowWriter rowWriter;
+        private final ConversionContext context = createContext(null);
+        private int depth;
+        private int lastRowNum = -1;
+        private int rowCount;
+        private int formulaCellNum = -1;
+        private boolean lastRowPassed;
+
+        SheetToCSVListener(WorkbookGlobalsListener globals, CSVDialectWriter csvWriter) {
+            this.sharedStrings = globals.sharedStrings;
+            this.rowWriter = new ProjectedRowWriter(projection, csvWriter);
+            for (Record formatRecord : globals.formatRecords) {
+                formatListener.processRecordInternally(formatRecord);
+            }
+        }
+
+        @Override
+        public short abortableProcessRecord(Record record) {
+            formatListener.processRecord(record);
+            if (record instanceof BOFRecord) {
+                depth++;
+            } else if (lastRowPassed || record instanceof EOFRecord && --depth == 0) {
+                try {
+                    rowWriter.finish(lastRowNum);
+                } catch (IOException exception) {
+                    throw new UncheckedIOException(exception);
+                }
+                return 1;
+            }
+            return 0;
+        }
+
+        private void processCellRecord(Record record) {
+            if (record instanceof CellValueRecordInterface) {
+                CellValueRecordInterface cell = (CellValueRecordInterface) record;
+                if (rowWriter.isPastLastRow(cell.getRow())) {
+                    lastRowPassed = true;
+                    return;
+                } else if (!rowWriter.isRowSelected(cell.getRow())) {
+                    return;
+                }
+                rowWriter.cellPresent(cell.getColumn());
+                if (!rowWriter.isCellSelected(cell.getColumn())) {
+                    return;
+                }
+            }
+            switch (record.getSid()) {
+                case RowRecord.sid:
+                    int rowNum = ((RowRecord) record).getRowNumber();
+                    lastRowNum = Math.max(lastRowNum, rowNum);
+                    if (rowWriter.isRowSelected(rowNum)) {
+                        rowCount++;
+                    }
+                    break;
+                case NumberRecord.sid:
+                    NumberRecord number = (NumberRecord) record;
+                    appendCell(number, formatNumber(number, number.getValue()));
+                    break;
+                case LabelSSTRecord.sid:
+                    LabelSSTRecord labelSST = (LabelSSTRecord) record;
+                    appendCell(labelSST, sharedStrings.getString(labelSST.getSSTIndex()).getString());
+                    break;
+                case LabelRecord.sid:
+                    LabelRecord label = (LabelRecord) record;
+                    appendCell(label, label.getValue());
+                    break;
+                case BoolErrRecord.sid:
+                    BoolErrRecord boolErr = (BoolErrRecord) record;
+                    appendCell(boolErr, boolErr.isBoolean() ?
+                            context.formatBoolean(boolErr.getBooleanValue()) :
+                            FormulaError.forInt(boolErr.getErrorValue()).getString());
+                    break;
+                case FormulaRecord.sid:
+                    appendFormulaCell((FormulaRecord) record);
+                    break;
+                case StringRecord.sid:
+                    if (formulaCellNum >= 0) {
+                        rowWriter.cell(formulaCellNum, ((StringRecord) record).getString());
+                        formulaCellNum = -1;
+                    }
+                    break;
+                case BlankRecord.sid:
+                    appendCell((CellValueRecordInterface) record, null);
+                    break;
+                default:
+                    if (record instanceof LastCellOfRowDummyRecord) {
+                        endRow(((LastCellOfRowDummyRecord) record).getRow());
+                    }
+                    break;
+            }
+        }
+
+        private void appendFormulaCell(FormulaRecord formula) {
+            int resultType = formula.getCachedResultType();
+            if (resultType == CACHED_STRING) {
+                formulaCellNum = formula.getColumn();
+            } else if (resultType == CACHED_BOOLEAN) {
+                appendCell(formula, context.formatBoolean(formula.getCachedBooleanValue()));
+            } else if (resultType == CACHED_ERROR) {
+                appendCell(formula, FormulaError.forInt(formula.getCachedErrorValue()).getString());
+            } else {
+                appendCell(formula, formatNumber(formula, formula.getValue()));
+            }
+        }
+
+        private String formatNumber(CellValueRecordInterface cell, double value) {
+            if (valueFormat == ValueFormat.RAW) {
+                return context.getFormatter().formatRawCellContents(value, formatListener.getFormatIndex(cell),
+                        formatListener.getFormatString(cell));
+            }
+            return formatListener.formatNumberDateCell(cell);
+        }
+
+        private void appendCell(CellValueRecordInterface cell, String value) {
+            rowWriter.cell(cell.getColumn(), value);
+        }
+
+        private void endRow(int rowNum) {
+            if (!rowWriter.isRowSelected(rowNum)) {
+                return;
+            }
+            try {
+                rowWriter.endRow(rowNum);
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        }
+    }
+
+    public static class Builder {
+        private CSVDialect dialect = new CSVDialect.Builder().build();
+        private int maxRowsPerPart;
+        private boolean repeatHeader;
+        private FormulaEvaluation formulaEvaluation = FormulaEvaluation.EVALUATE;
+        private ValueFormat valueFormat = ValueFormat.FORMATTED;
+        private boolean sheetNameColumn;
+        private CellProjection projection = CellProjection.ALL;
+        private int sheetParallelism = Runtime.getRuntime().availableProcessors();
+
+        public Builder dialect(CSVDialect dialect) {
+            this.dialect = dialect;
+            return this;
+        }
+
+        /**
+         * Splits each sheet into parts of at most maxRowsPerPart rows, see {@link SheetOutput#nextPart(String)}.
+         * A value of 0 keeps every sheet in one part.
+         */
+        public Builder maxRowsPerPart(int maxRowsPerPart) {
+            this.maxRowsPerPart = maxRowsPerPart;
+            return this;
+        }
+
+        /**
+         * Writes the first row of a sheet again at the start of each part.
+         */
+        public Builder repeatHeader(boolean repeatHeader) {
+            this.repeatHeader = repeatHeader;
+            return this;
+        }
+
+        /**
+         * Only applies to loaded workbooks: streamed workbooks are always converted with the results cached in the
+         * document.
+         */
+        public Builder formulaEvaluation(FormulaEvaluation formulaEvaluation) {
+            this.formulaEvaluation = formulaEvaluation;
+            return this;
+        }
+
+        public Builder valueFormat(ValueFormat valueFormat) {
+            this.valueFormat = valueFormat;
+            return this;
+        }
+
+        /**
+         * Writes the sheet name as the first field of every record, so several sheets can share one CSV output.
+         */
+        public Builder sheetNameColumn(boolean sheetNameColumn) {
+            this.sheetNameColumn = sheetNameColumn;
+            return this;
+        }
+
+        /**
+         * Converts only the cells chosen by the projection. Cells outside of it are skipped before they are formatted.
+         */
+        public Builder projection(CellProjection projection) {
+            this.projection = projection;
+            return this;
+        }
+
+        /**
+         * Maximum number of sheets of one workbook converted at the same time when an executor is given, counting the
+         * sheet that is written straight to the output. The other sheets are held in memory until their turn.
+         * Defaults to the number of processors.
+         */
+        public Builder sheetParallelism(int sheetParallelism) {
+            if (sheetParallelism < 1) {
+                throw new IllegalArgumentException("Sheet parallelism must be positive: " + sheetParallelism);
+            }
+            this.sheetParallelism = sheetParallelism;
+            return this;
+        }
+
+        public CSVConverterImp build() {
+            return new CSVConverterImp(this);
         }
     }
 }
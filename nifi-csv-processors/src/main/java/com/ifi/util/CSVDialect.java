@@ -0,0 +1,127 @@
+package com.ifi.util;
+
+/**
+ * Immutable description of the CSV output: delimiter, quoting, escaping and record separator. The characters that
+ * need attention are resolved once into a lookup table, so writing a field only costs one table read per character.
+ */
+public class CSVDialect {
+    public static final String LF = "\n";
+    public static final String CRLF = "\r\n";
+
+    private static final int TABLE_SIZE = 128;
+
+    private final String delimiter;
+    private final EscapeChar escapeChar;
+    private final char quoteCharacter;
+    private final char escapeCharacter;
+    private final QuotePolicy quotePolicy;
+    private final String recordSeparator;
+    private final boolean[] specialCharacters = new boolean[TABLE_SIZE];
+    private final StringBuilder otherSpecialCharacters = new StringBuilder();
+
+    private CSVDialect(Builder builder) {
+        this.delimiter = builder.delimiter;
+        this.escapeChar = builder.escapeChar;
+        this.quoteCharacter = builder.quoteCharacter;
+        this.escapeCharacter = builder.escapeCharacter;
+        this.quotePolicy = builder.quotePolicy;
+        this.recordSeparator = builder.recordSeparator;
+
+        markSpecial(delimiter.charAt(0));
+        markSpecial('\n');
+        markSpecial('\r');
+        if (escapeChar == EscapeChar.EXCEL_STYLE_ESCAPING) {
+            markSpecial(quoteCharacter);
+        } else {
+            markSpecial(escapeCharacter);
+            if (quotePolicy != QuotePolicy.MINIMAL) {
+                markSpecial(quoteCharacter);
+            }
+        }
+    }
+
+    private void markSpecial(char c) {
+        if (c < TABLE_SIZE) {
+            specialCharacters[c] = true;
+        } else {
+            otherSpecialCharacters.append(c);
+        }
+    }
+
+    boolean isSpecial(char c) {
+        if (c < TABLE_SIZE) {
+            return specialCharacters[c];
+        }
+        return otherSpecialCharacters.length() > 0 && otherSpecialCharacters.indexOf(String.valueOf(c)) >= 0;
+    }
+
+    public String getDelimiter() {
+        return delimiter;
+    }
+
+    public EscapeChar getEscapeChar() {
+        return escapeChar;
+    }
+
+    public char getQuoteCharacter() {
+        return quoteCharacter;
+    }
+
+    public char getEscapeCharacter() {
+        return escapeCharacter;
+    }
+
+    public QuotePolicy getQuotePolicy() {
+        return quotePolicy;
+    }
+
+    public String getRecordSeparator() {
+        return recordSeparator;
+    }
+
+    public static class Builder {
+        private String delimiter = ",";
+        private EscapeChar escapeChar = EscapeChar.EXCEL_STYLE_ESCAPING;
+        private char quoteCharacter = '"';
+        private char escapeCharacter = '\\';
+        private QuotePolicy quotePolicy = QuotePolicy.MINIMAL;
+        private String recordSeparator = LF;
+
+        public Builder delimiter(String delimiter) {
+            if (delimiter == null || delimiter.isEmpty()) {
+                throw new IllegalArgumentException("Delimiter must not be empty");
+            }
+            this.delimiter = delimiter;
+            return this;
+        }
+
+        public Builder escapeChar(EscapeChar escapeChar) {
+            this.escapeChar = escapeChar;
+            return this;
+        }
+
+        public Builder quoteCharacter(char quoteCharacter) {
+            this.quoteCharacter = quoteCharacter;
+            return this;
+        }
+
+        public Builder escapeCharacter(char escapeCharacter) {
+            this.escapeCharacter = escapeCharacter;
+            return this;
+        }
+
+        public Builder quotePolicy(QuotePolicy quotePolicy) {
+            this.quotePolicy = quotePolicy;
+            return this;
+        }
+
+        public Builder recordSeparator(String recordSeparator) {
+            this.recordSeparator = recordSeparator;
+            return this;
+        }
+
+        public CSVDialect build() {
+            return new CSVDialect(this);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.ifi.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Reads records of a {@link CSVDialect} from a Reader, the reverse of {@link CSVDialectWriter}. Records end with
+ * LF, CRLF or CR outside of quotes. With Excel style escaping a quoted field holds doubled quote characters, with
+ * Unix style escaping the escape character takes the next character literally, inside or outside of quotes. A field
+ * that starts with the quote character is always read as a quoted field.
+ */
+public class CSVDialectReader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Reader reader;
+    private final char[] delimiter;
+    private final boolean excelStyle;
+    private final char quoteCharacter;
+    private final char escapeCharacter;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final StringBuilder field = new StringBuilder();
+    private int position;
+    private int limit;
+    private boolean endOfInput;
+    private long recordCount;
+
+    public CSVDialectReader(CSVDialect dialect, Reader reader) {
+        this.reader = reader;
+        this.delimiter = dialect.getDelimiter().toCharArray();
+        this.excelStyle = dialect.getEscapeChar() == EscapeChar.EXCEL_STYLE_ESCAPING;
+        this.quoteCharacter = dialect.getQuoteCharacter();
+        this.escapeCharacter = dialect.getEscapeCharacter();
+    }
+
+    /**
+     * Replaces the content of fields with the fields of the next record. Returns false once the input is exhausted.
+     */
+    public boolean readRecord(List<String> fields) throws IOException {
+        fields.clear();
+        if (!ensure(1)) {
+            return false;
+        }
+        while (true) {
+            boolean endOfRecord = readField();
+            fields.add(field.toString());
+            if (endOfRecord) {
+                recordCount++;
+                return true;
+            }
+        }
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Reads one field into the field builder and consumes what follows it. Returns true when the field ends the record.
+     */
+    private boolean readField() throws IOException {
+        field.setLength(0);
+        boolean quoted = false;
+        if (ensure(1) && buffer[position] == quoteCharacter) {
+            quoted = true;
+            position++;
+        }
+        while (ensure(1)) {
+            char c = buffer[position];
+            if (!excelStyle && c == escapeCharacter) {
+                position++;
+                if (ensure(1)) {
+                    field.append(buffer[position++]);
+                }
+            } else if (quoted) {
+                position++;
+                if (c != quoteCharacter) {
+                    field.append(c);
+                } else if (excelStyle && ensure(1) && buffer[position] == quoteCharacter) {
+                    field.append(quoteCharacter);
+                    position++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '\n') {
+                position++;
+                return true;
+            } else if (c == '\r') {
+                position++;
+                if (ensure(1) && buffer[position] == '\n') {
+                    position++;
+                }
+                return true;
+            } else if (isDelimiter()) {
+                position += delimiter.length;
+                return false;
+            } else {
+                field.append(c);
+                position++;
+            }
+        }
+        return true;
+    }
+
+    private boolean isDelimiter() throws IOException {
+        if (buffer[position] != delimiter[0]) {
+            return false;
+        }
+        if (!ensure(delimiter.length)) {
+            return false;
+        }
+        for (int i = 1; i < delimiter.length; i++) {
+            if (buffer[position + i] != delimiter[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Makes sure at least count characters are buffered, unless the input ends first.
+     */
+    private boolean ensure(int count) throws IOException {
+        if (limit - position >= count) {
+            return true;
+        }
+        if (endOfInput) {
+            return false;
+        }
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+        while (limit < count) {
+            int read = reader.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                endOfInput = true;
+                return false;
+            }
+            limit += read;
+        }
+        return true;
+    }
+}
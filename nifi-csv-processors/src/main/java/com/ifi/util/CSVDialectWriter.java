@@ -0,0 +1,208 @@
+package com.ifi.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes records of a {@link CSVDialect} into a Writer. Fields are scanned once against the dialect lookup table:
+ * a field without special characters is written as is, otherwise it is quoted and escaped from the first special
+ * character on. With Unix style escaping a quote character at the start of a field is escaped even when quotes are
+ * not special, so that {@link CSVDialectReader} doesn't read it as a quoted field. Missing cells are written as
+ * {@code null} and always give an empty, unquoted field.
+ */
+public class CSVDialectWriter {
+    private Writer writer;
+    private final String delimiter;
+    private final char delimiterStart;
+    private final boolean excelStyle;
+    private final char quoteCharacter;
+    private final boolean quoteIsSpecial;
+    private final char escapeCharacter;
+    private final QuotePolicy quotePolicy;
+    private final String recordSeparator;
+    private final CSVDialect dialect;
+    private boolean firstField = true;
+    private String leadingField;
+    private long recordCount;
+    private long valueCount;
+
+    public CSVDialectWriter(CSVDialect dialect, Writer writer) {
+        this.dialect = dialect;
+        this.writer = writer;
+        this.delimiter = dialect.getDelimiter();
+        this.delimiterStart = delimiter.charAt(0);
+        this.excelStyle = dialect.getEscapeChar() == EscapeChar.EXCEL_STYLE_ESCAPING;
+        this.quoteCharacter = dialect.getQuoteCharacter();
+        this.quotePolicy = dialect.getQuotePolicy();
+        this.quoteIsSpecial = excelStyle || quotePolicy != QuotePolicy.MINIMAL;
+        this.escapeCharacter = dialect.getEscapeCharacter();
+        this.recordSeparator = dialect.getRecordSeparator();
+    }
+
+    /**
+     * Sets a field written at the start of every record, before the fields of the record, such as the name of the
+     * sheet the record comes from. It is not counted as a value.
+     */
+    public void setLeadingField(String leadingField) {
+        this.leadingField = leadingField;
+    }
+
+    public void writeField(String value) throws IOException {
+        if (firstField) {
+            startRecord();
+            if (leadingField != null) {
+                writeValue(leadingField);
+                writer.write(delimiter);
+            }
+        } else {
+            writer.write(delimiter);
+        }
+        firstField = false;
+        if (value == null) {
+            return;
+        }
+        valueCount++;
+        writeValue(value);
+    }
+
+    private void writeValue(String value) throws IOException {
+        int length = value.length();
+        int firstSpecial = 0;
+        while (firstSpecial < length && tokenLength(value, firstSpecial) == 0) {
+            firstSpecial++;
+        }
+        boolean quoted = quotePolicy == QuotePolicy.ALL ||
+                (quotePolicy == QuotePolicy.NON_NUMERIC && !isNumeric(value)) ||
+                (excelStyle && firstSpecial < length);
+        if (quoted) {
+            writer.write(quoteCharacter);
+        }
+        if (firstSpecial == length) {
+            writer.write(value);
+        } else {
+            writeEscaped(value, firstSpecial);
+        }
+        if (quoted) {
+            writer.write(quoteCharacter);
+        }
+    }
+
+    public void endRecord() throws IOException {
+        if (firstField) {
+            startRecord();
+            if (leadingField != null) {
+                writeValue(leadingField);
+            }
+        }
+        writer.write(recordSeparator);
+        firstField = true;
+        recordCount++;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Number of fields written with a value, as opposed to empty fields of missing cells.
+     */
+    public long getValueCount() {
+        return valueCount;
+    }
+
+    /**
+     * Called before the first field, or the line break of an empty record, is written.
+     */
+    protected void startRecord() throws IOException {
+    }
+
+    protected void setWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    private void writeEscaped(String value, int from) throws IOException {
+        int length = value.length();
+        int start = 0;
+        int i = from;
+        while (i < length) {
+            int tokenLength = tokenLength(value, i);
+            if (tokenLength == 0) {
+                i++;
+                continue;
+            }
+            if (excelStyle) {
+                if (value.charAt(i) == quoteCharacter) {
+                    writer.write(value, start, i + 1 - start);
+                    writer.write(quoteCharacter);
+                    start = i + 1;
+                }
+            } else {
+                writer.write(value, start, i - start);
+                writer.write(escapeCharacter);
+                writer.write(value, i, tokenLength);
+                start = i + tokenLength;
+            }
+            i += tokenLength;
+        }
+        writer.write(value, start, length - start);
+    }
+
+    private int tokenLength(String value, int index) {
+        char c = value.charAt(index);
+        // a leading quote character would be read back as the start of a quoted field
+        if (index == 0 && c == quoteCharacter && !excelStyle) {
+            return 1;
+        }
+        if (!dialect.isSpecial(c)) {
+            return 0;
+        }
+        if (c == delimiterStart && value.startsWith(delimiter, index)) {
+            return delimiter.length();
+        }
+        if (c == '\n' || c == '\r' || (quoteIsSpecial && c == quoteCharacter) || (!excelStyle && c == escapeCharacter)) {
+            return 1;
+        }
+        return 0;
+    }
+
+    private static boolean isNumeric(String value) {
+        int length = value.length();
+        int i = 0;
+        if (length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+')) {
+            i++;
+        }
+        boolean digits = false;
+        boolean decimalPoint = false;
+        for (; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits = true;
+            } else if (c == '.' && !decimalPoint) {
+                decimalPoint = true;
+            } else if ((c == 'E' || c == 'e') && digits) {
+                return isExponent(value, i + 1);
+            } else {
+                return false;
+            }
+        }
+        return digits;
+    }
+
+    private static boolean isExponent(String value, int from) {
+        int length = value.length();
+        int i = from;
+        if (i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+            i++;
+        }
+        if (i == length) {
+            return false;
+        }
+        for (; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
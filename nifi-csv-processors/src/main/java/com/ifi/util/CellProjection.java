@@ -0,0 +1,143 @@
+package com.ifi.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable choice of the cells to convert in each sheet: a range of rows and columns, the columns to keep, by
+ * position or by the name in their header row, and whether blank rows and trailing empty fields are written. Kept
+ * columns are written in sheet order. A projection without any criteria converts every cell, as it always was.
+ */
+public class CellProjection {
+    public static final CellProjection ALL = new Builder().build();
+
+    private final int firstRow;
+    private final int lastRow;
+    private final int firstColumn;
+    private final int lastColumn;
+    private final BitSet columns;
+    private final List<String> columnNames;
+    private final boolean skipBlankRows;
+    private final boolean trimTrailingEmptyColumns;
+
+    private CellProjection(Builder builder) {
+        this.firstRow = builder.firstRow;
+        this.lastRow = builder.lastRow;
+        this.firstColumn = builder.firstColumn;
+        this.lastColumn = builder.lastColumn;
+        this.columns = (BitSet) builder.columns.clone();
+        this.columnNames = Collections.unmodifiableList(new ArrayList<>(builder.columnNames));
+        this.skipBlankRows = builder.skipBlankRows;
+        this.trimTrailingEmptyColumns = builder.trimTrailingEmptyColumns;
+    }
+
+    int getFirstRow() {
+        return firstRow;
+    }
+
+    int getLastRow() {
+        return lastRow;
+    }
+
+    int getFirstColumn() {
+        return firstColumn;
+    }
+
+    int getLastColumn() {
+        return lastColumn;
+    }
+
+    /**
+     * Columns kept by position, or null when every column of the range is kept.
+     */
+    BitSet getColumns() {
+        return columns.isEmpty() && columnNames.isEmpty() ? null : columns;
+    }
+
+    List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    boolean isSkipBlankRows() {
+        return skipBlankRows;
+    }
+
+    boolean isTrimTrailingEmptyColumns() {
+        return trimTrailingEmptyColumns;
+    }
+
+    public static class Builder {
+        private int firstRow;
+        private int lastRow = Integer.MAX_VALUE;
+        private int firstColumn;
+        private int lastColumn = Integer.MAX_VALUE;
+        private final BitSet columns = new BitSet();
+        private final List<String> columnNames = new ArrayList<>();
+        private boolean skipBlankRows;
+        private boolean trimTrailingEmptyColumns;
+
+        /**
+         * Only converts the rows from firstRow to lastRow inclusive, counting from 0. Parsing of a sheet stops after
+         * lastRow.
+         */
+        public Builder rows(int firstRow, int lastRow) {
+            if (firstRow < 0 || lastRow < firstRow) {
+                throw new IllegalArgumentException("Invalid row range " + firstRow + "-" + lastRow);
+            }
+            this.firstRow = firstRow;
+            this.lastRow = lastRow;
+            return this;
+        }
+
+        /**
+         * Only converts the cells from firstColumn to lastColumn inclusive, counting from 0. The first column of the
+         * range is written as the first field.
+         */
+        public Builder columnRange(int firstColumn, int lastColumn) {
+            if (firstColumn < 0 || lastColumn < firstColumn) {
+                throw new IllegalArgumentException("Invalid column range " + firstColumn + "-" + lastColumn);
+            }
+            this.firstColumn = firstColumn;
+            this.lastColumn = lastColumn;
+            return this;
+        }
+
+        /**
+         * Keeps the columns from firstColumn to lastColumn inclusive, counting from 0.
+         */
+        public Builder columns(int firstColumn, int lastColumn) {
+            if (firstColumn < 0 || lastColumn < firstColumn) {
+                throw new IllegalArgumentException("Invalid column range " + firstColumn + "-" + lastColumn);
+            }
+            this.columns.set(firstColumn, lastColumn + 1);
+            return this;
+        }
+
+        /**
+         * Keeps the columns whose value in the first converted row of the sheet equals one of the names, ignoring
+         * case and surrounding spaces.
+         */
+        public Builder columnNames(String... columnNames) {
+            for (String columnName : columnNames) {
+                this.columnNames.add(columnName.trim());
+            }
+            return this;
+        }
+
+        public Builder skipBlankRows(boolean skipBlankRows) {
+            this.skipBlankRows = skipBlankRows;
+            return this;
+        }
+
+        public Builder trimTrailingEmptyColumns(boolean trimTrailingEmptyColumns) {
+            this.trimTrailingEmptyColumns = trimTrailingEmptyColumns;
+            return this;
+        }
+
+        public CellProjection build() {
+            return new CellProjection(this);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.ifi.util;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.Date1904Support;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.NumberToTextConverter;
+
+import java.util.Arrays;
+
+/**
+ * Mutable state of one workbook conversion. A context belongs to a single task at a time, so the
+ * {@link CSVConverter} that creates it only holds immutable configuration and can be shared between tasks.
+ */
+public class ConversionContext {
+    private final DataFormatter formatter;
+    private final FormulaResultEvaluator evaluator;
+    private final ValueFormat valueFormat;
+    private final boolean date1904;
+    private StyleFormat[] styleFormats = new StyleFormat[64];
+
+    ConversionContext(Workbook workbook, FormulaEvaluation formulaEvaluation, ValueFormat valueFormat) {
+        this.formatter = valueFormat == ValueFormat.RAW ? new RawValueFormatter() : new DataFormatter();
+        this.evaluator = workbook != null ? new FormulaResultEvaluator(workbook, formulaEvaluation) : null;
+        this.valueFormat = valueFormat;
+        this.date1904 = workbook instanceof Date1904Support && ((Date1904Support) workbook).isDate1904();
+    }
+
+    /**
+     * Number of formulas that were evaluated instead of written with their cached result.
+     */
+    public long getFormulasEvaluated() {
+        return evaluator != null ? evaluator.getFormulasEvaluated() : 0;
+    }
+
+    DataFormatter getFormatter() {
+        return formatter;
+    }
+
+    FormulaEvaluator getEvaluator() {
+        return evaluator;
+    }
+
+    String formatNumber(double value, CellStyle style) {
+        StyleFormat styleFormat = getStyleFormat(style);
+        if (styleFormat.formatString == null) {
+            // what the General format of Excel writes
+            return NumberToTextConverter.toText(value);
+        }
+        return formatter.formatRawCellContents(value, styleFormat.formatIndex, styleFormat.formatString, date1904);
+    }
+
+    String formatBoolean(boolean value) {
+        if (valueFormat == ValueFormat.RAW) {
+            return value ? "true" : "false";
+        }
+        return value ? "TRUE" : "FALSE";
+    }
+
+    /**
+     * Resolves the number format of a cell style once per workbook, instead of once per cell.
+     */
+    private StyleFormat getStyleFormat(CellStyle style) {
+        if (style == null) {
+            return StyleFormat.NONE;
+        }
+        int index = style.getIndex() & 0xFFFF;
+        if (index >= styleFormats.length) {
+            styleFormats = Arrays.copyOf(styleFormats, Math.max(index + 1, styleFormats.length * 2));
+        }
+        StyleFormat styleFormat = styleFormats[index];
+        if (styleFormat == null) {
+            styleFormat = new StyleFormat(style.getDataFormat(), style.getDataFormatString());
+            styleFormats[index] = styleFormat;
+        }
+        return styleFormat;
+    }
+
+    private static class StyleFormat {
+        private static final StyleFormat NONE = new StyleFormat(0, null);
+
+        private final int formatIndex;
+        private final String formatString;
+
+        StyleFormat(int formatIndex, String formatString) {
+            this.formatIndex = formatIndex;
+            this.formatString = formatString == null || formatString.trim().isEmpty() ? null : formatString;
+        }
+    }
+}
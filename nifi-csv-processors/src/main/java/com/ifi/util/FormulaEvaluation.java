@@ -0,0 +1,13 @@
+package com.ifi.util;
+
+/**
+ * How formula cells of a loaded workbook are converted.
+ */
+public enum FormulaEvaluation {
+    /** Write the result Excel stored in the document, without evaluating the formula. */
+    CACHED,
+    /** Evaluate every formula with the POI formula evaluator. */
+    EVALUATE,
+    /** Write the stored result, and only evaluate the formulas that were saved without one. */
+    EVALUATE_IF_NO_CACHED_VALUE
+}
@@ -0,0 +1,110 @@
+package com.ifi.util;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.CellValue;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFCell;
+
+import java.util.Map;
+
+/**
+ * Evaluator asked for the result type of each formula cell, which decides whether the cached result is written or
+ * the formula is evaluated. The POI evaluator is only created once a formula actually needs it.
+ */
+class FormulaResultEvaluator implements FormulaEvaluator {
+    private final Workbook workbook;
+    private final FormulaEvaluation formulaEvaluation;
+    private FormulaEvaluator evaluator;
+    private long formulasEvaluated;
+
+    FormulaResultEvaluator(Workbook workbook, FormulaEvaluation formulaEvaluation) {
+        this.workbook = workbook;
+        this.formulaEvaluation = formulaEvaluation;
+    }
+
+    long getFormulasEvaluated() {
+        return formulasEvaluated;
+    }
+
+    @Override
+    public CellType evaluateFormulaCell(Cell cell) {
+        if (cell.getCellType() != CellType.FORMULA) {
+            return cell.getCellType();
+        }
+        if (formulaEvaluation == FormulaEvaluation.CACHED ||
+                (formulaEvaluation == FormulaEvaluation.EVALUATE_IF_NO_CACHED_VALUE && hasCachedValue(cell))) {
+            return cell.getCachedFormulaResultType();
+        }
+        formulasEvaluated++;
+        return getEvaluator().evaluateFormulaCell(cell);
+    }
+
+    @Override
+    @Deprecated
+    public CellType evaluateFormulaCellEnum(Cell cell) {
+        return evaluateFormulaCell(cell);
+    }
+
+    private static boolean hasCachedValue(Cell cell) {
+        return !(cell instanceof XSSFCell) || ((XSSFCell) cell).getCTCell().isSetV();
+    }
+
+    private FormulaEvaluator getEvaluator() {
+        if (evaluator == null) {
+            evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+        }
+        return evaluator;
+    }
+
+    @Override
+    public void clearAllCachedResultValues() {
+        getEvaluator().clearAllCachedResultValues();
+    }
+
+    @Override
+    public void notifySetFormula(Cell cell) {
+        getEvaluator().notifySetFormula(cell);
+    }
+
+    @Override
+    public void notifyDeleteCell(Cell cell) {
+        getEvaluator().notifyDeleteCell(cell);
+    }
+
+    @Override
+    public void notifyUpdateCell(Cell cell) {
+        getEvaluator().notifyUpdateCell(cell);
+    }
+
+    @Override
+    public void evaluateAll() {
+        getEvaluator().evaluateAll();
+    }
+
+    @Override
+    public CellValue evaluate(Cell cell) {
+        return getEvaluator().evaluate(cell);
+    }
+
+    @Override
+    public Cell evaluateInCell(Cell cell) {
+        return getEvaluator().evaluateInCell(cell);
+    }
+
+    @Override
+    public void setupReferencedWorkbooks(Map<String, FormulaEvaluator> workbooks) {
+        getEvaluator().setupReferencedWorkbooks(workbooks);
+    }
+
+    @Override
+    public void setIgnoreMissingWorkbooks(boolean ignore) {
+        getEvaluator().setIgnoreMissingWorkbooks(ignore);
+    }
+
+    @Override
+    public void setDebugEvaluationOutputForNextEval(boolean value) {
+        getEvaluator().setDebugEvaluationOutputForNextEval(value);
+    }
+}
@@ -0,0 +1,159 @@
+package com.ifi.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Writes the rows of one sheet through a {@link CellProjection}. The readers ask {@link #isRowSelected(int)} and
+ * {@link #isCellSelected(int)} before they format a cell, so cells that are not converted cost no formatting, and
+ * hand the kept cells over in any column order. Rows missing from the sheet are written as empty records unless
+ * blank rows are skipped.
+ */
+class ProjectedRowWriter {
+    private final CSVDialectWriter csvWriter;
+    private final int firstRow;
+    private final int lastRow;
+    private final int firstColumn;
+    private final int lastColumn;
+    private final List<String> columnNames;
+    private final boolean skipBlankRows;
+    private final boolean trimTrailingEmptyColumns;
+    private BitSet columns;
+    private boolean headerPending;
+    private String[] fields = new String[16];
+    private int rowLastColumn = -1;
+    private int nextRowNum;
+
+    ProjectedRowWriter(CellProjection projection, CSVDialectWriter csvWriter) {
+        this.csvWriter = csvWriter;
+        this.firstRow = projection.getFirstRow();
+        this.lastRow = projection.getLastRow();
+        this.firstColumn = projection.getFirstColumn();
+        this.lastColumn = projection.getLastColumn();
+        this.columnNames = projection.getColumnNames();
+        this.skipBlankRows = projection.isSkipBlankRows();
+        this.trimTrailingEmptyColumns = projection.isTrimTrailingEmptyColumns();
+        BitSet projectedColumns = projection.getColumns();
+        this.columns = projectedColumns != null ? (BitSet) projectedColumns.clone() : null;
+        this.headerPending = !columnNames.isEmpty();
+        this.nextRowNum = firstRow;
+    }
+
+    boolean isRowSelected(int rowNum) {
+        return rowNum >= firstRow && rowNum <= lastRow;
+    }
+
+    /**
+     * Whether no row after rowNum is converted, so the reader can stop parsing the sheet.
+     */
+    boolean isPastLastRow(int rowNum) {
+        return rowNum > lastRow;
+    }
+
+    boolean isCellSelected(int columnNum) {
+        return columnNum >= firstColumn && columnNum <= lastColumn && (columns == null || headerPending || columns.get(columnNum));
+    }
+
+    /**
+     * Sets the value of a selected cell of the current row. A null value only marks the cell as present.
+     */
+    void cell(int columnNum, String value) {
+        cellPresent(columnNum);
+        if (value != null) {
+            fields[columnNum] = value;
+        }
+    }
+
+    /**
+     * Marks a cell of the current row as present, selected or not, so the kept columns are written up to it.
+     */
+    void cellPresent(int columnNum) {
+        int column = Math.min(columnNum, lastColumn);
+        if (column <= rowLastColumn || column < firstColumn) {
+            return;
+        }
+        if (column >= fields.length) {
+            fields = Arrays.copyOf(fields, Math.max(column + 1, fields.length * 2));
+        }
+        rowLastColumn = column;
+    }
+
+    /**
+     * Writes the current row, preceded by the missing rows since the previous one.
+     */
+    void endRow(int rowNum) throws IOException {
+        writeMissingRows(rowNum);
+        if (headerPending) {
+            resolveColumns();
+        }
+        int last = rowLastColumn;
+        if (trimTrailingEmptyColumns || skipBlankRows) {
+            int lastValue = last;
+            while (lastValue >= firstColumn && (isEmpty(fields[lastValue]) || !isKept(lastValue))) {
+                lastValue--;
+            }
+            if (trimTrailingEmptyColumns) {
+                last = lastValue;
+            }
+            if (skipBlankRows && lastValue < firstColumn) {
+                last = -1;
+            }
+        }
+        if (last >= firstColumn || !skipBlankRows) {
+            for (int i = firstColumn; i <= last; i++) {
+                if (isKept(i)) {
+                    csvWriter.writeField(fields[i]);
+                }
+            }
+            csvWriter.endRecord();
+        }
+        if (rowLastColumn >= 0) {
+            Arrays.fill(fields, 0, rowLastColumn + 1, null);
+        }
+        rowLastColumn = -1;
+        nextRowNum = rowNum + 1;
+    }
+
+    /**
+     * Writes the rows missing at the end of a sheet whose last row is lastRowNum.
+     */
+    void finish(int lastRowNum) throws IOException {
+        writeMissingRows(Math.min(lastRowNum, lastRow) + 1);
+    }
+
+    private void writeMissingRows(int untilRowNum) throws IOException {
+        for (; nextRowNum < untilRowNum; nextRowNum++) {
+            if (!skipBlankRows) {
+                csvWriter.endRecord();
+            }
+        }
+    }
+
+    /**
+     * Adds the columns named in the first converted row to the kept columns.
+     */
+    private void resolveColumns() {
+        headerPending = false;
+        for (int i = firstColumn; i <= rowLastColumn; i++) {
+            if (fields[i] == null) {
+                continue;
+            }
+            for (String columnName : columnNames) {
+                if (columnName.equalsIgnoreCase(fields[i].trim())) {
+                    columns.set(i);
+                    break;
+                }
+            }
+        }
+    }
+
+    private boolean isKept(int columnNum) {
+        return columns == null || columns.get(columnNum);
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+}
@@ -0,0 +1,5 @@
+package com.ifi.util;
+
+public enum QuotePolicy {
+    MINIMAL, ALL, NON_NUMERIC
+}
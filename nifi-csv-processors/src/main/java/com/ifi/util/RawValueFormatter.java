@@ -0,0 +1,34 @@
+package com.ifi.util;
+
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.NumberToTextConverter;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * DataFormatter of {@link ValueFormat#RAW}, which ignores the display format of numbers. The streaming readers of
+ * POI format numbers through {@link #formatRawCellContents}, so the same formatter serves every conversion path.
+ */
+class RawValueFormatter extends DataFormatter {
+
+    @Override
+    public String formatRawCellContents(double value, int formatIndex, String formatString, boolean use1904Windowing) {
+        if (DateUtil.isADateFormat(formatIndex, formatString) && DateUtil.isValidExcelDate(value)) {
+            return formatDate(value, use1904Windowing);
+        }
+        return NumberToTextConverter.toText(value);
+    }
+
+    private static String formatDate(double value, boolean use1904Windowing) {
+        LocalDateTime dateTime = DateUtil.getLocalDateTime(value, use1904Windowing);
+        if (value < 1) {
+            return DateTimeFormatter.ISO_LOCAL_TIME.format(dateTime);
+        } else if (dateTime.toLocalTime().equals(LocalTime.MIDNIGHT)) {
+            return DateTimeFormatter.ISO_LOCAL_DATE.format(dateTime);
+        }
+        return DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(dateTime);
+    }
+}
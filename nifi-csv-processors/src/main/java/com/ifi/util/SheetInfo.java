@@ -0,0 +1,43 @@
+package com.ifi.util;
+
+/**
+ * Description of one sheet of a workbook, read without converting its cells.
+ */
+public class SheetInfo {
+    private final int index;
+    private final String name;
+    private final String dimension;
+    private final int rowCount;
+
+    SheetInfo(int index, String name, String dimension, int rowCount) {
+        this.index = index;
+        this.name = name;
+        this.dimension = dimension;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * Position of the sheet in the workbook, counting from 0.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Used range of the sheet as recorded in the workbook, such as A1:D20, or null when the workbook doesn't record it.
+     */
+    public String getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Number of rows stored in the sheet.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+}
@@ -0,0 +1,33 @@
+package com.ifi.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Receives the CSV content of each sheet while a workbook is being streamed.
+ */
+public interface SheetOutput {
+
+    Writer startSheet(String sheetName) throws IOException;
+
+    /**
+     * Ends the current part of a sheet that is split by row count and returns the writer of the next part. An output
+     * that doesn't keep the parts apart returns the writer of the sheet, so the parts follow each other.
+     */
+    Writer nextPart(String sheetName) throws IOException;
+
+    void endSheet(String sheetName, int rowCount) throws IOException;
+
+    /**
+     * Called once the workbook has been opened and its sheets are about to be converted.
+     */
+    default void workbookOpened(long openNanos) {
+    }
+
+    /**
+     * Called with the measurements of a sheet right before {@link #endSheet(String, int)}.
+     */
+    default void sheetConverted(String sheetName, SheetStatistics statistics) {
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.ifi.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable choice of the sheets to convert, by name, by index and by name pattern. Sheets chosen by name come
+ * first, in the order the names are given, followed by the sheets chosen by index or pattern in workbook order.
+ * A selector without any criteria selects every sheet.
+ */
+public class SheetSelector {
+    public static final SheetSelector ALL = new Builder().build();
+
+    private final List<String> names;
+    private final BitSet indexes;
+    private final Pattern pattern;
+
+    private SheetSelector(Builder builder) {
+        this.names = Collections.unmodifiableList(new ArrayList<>(builder.names));
+        this.indexes = (BitSet) builder.indexes.clone();
+        this.pattern = builder.pattern;
+    }
+
+    /**
+     * Selects the sheets with the given names, ignoring case, or every sheet when names is null.
+     */
+    public static SheetSelector ofNames(String... names) {
+        return names == null ? ALL : new Builder().names(names).build();
+    }
+
+    public boolean selectsAll() {
+        return names.isEmpty() && indexes.isEmpty() && pattern == null;
+    }
+
+    /**
+     * Returns the indexes of the selected sheets, in conversion order, among the given sheet names of a workbook.
+     */
+    public List<Integer> select(List<String> sheetNames) {
+        List<Integer> selected = new ArrayList<>();
+        if (selectsAll()) {
+            for (int i = 0; i < sheetNames.size(); i++) {
+                selected.add(i);
+            }
+            return selected;
+        }
+        Set<Integer> unique = new LinkedHashSet<>();
+        for (String name : names) {
+            for (int i = 0; i < sheetNames.size(); i++) {
+                if (sheetNames.get(i).equalsIgnoreCase(name)) {
+                    unique.add(i);
+                    break;
+                }
+            }
+        }
+        for (int i = 0; i < sheetNames.size(); i++) {
+            if (indexes.get(i) || (pattern != null && pattern.matcher(sheetNames.get(i)).matches())) {
+                unique.add(i);
+            }
+        }
+        selected.addAll(unique);
+        return selected;
+    }
+
+    public static class Builder {
+        private final List<String> names = new ArrayList<>();
+        private final BitSet indexes = new BitSet();
+        private Pattern pattern;
+
+        public Builder names(String... names) {
+            this.names.addAll(Arrays.asList(names));
+            return this;
+        }
+
+        /**
+         * Selects the sheets from firstIndex to lastIndex inclusive, counting from 0.
+         */
+        public Builder indexes(int firstIndex, int lastIndex) {
+            if (firstIndex < 0 || lastIndex < firstIndex) {
+                throw new IllegalArgumentException("Invalid sheet index range " + firstIndex + "-" + lastIndex);
+            }
+            this.indexes.set(firstIndex, lastIndex + 1);
+            return this;
+        }
+
+        public Builder pattern(Pattern pattern) {
+            this.pattern = pattern;
+            return this;
+        }
+
+        public SheetSelector build() {
+            return new SheetSelector(this);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.ifi.util;
+
+/**
+ * Measurements of the conversion of one sheet.
+ */
+public class SheetStatistics {
+    private final long rowCount;
+    private final long cellCount;
+    private final long conversionNanos;
+    private final long[] partRowCounts;
+
+    public SheetStatistics(long rowCount, long cellCount, long conversionNanos) {
+        this(rowCount, cellCount, conversionNanos, new long[]{rowCount});
+    }
+
+    public SheetStatistics(long rowCount, long cellCount, long conversionNanos, long[] partRowCounts) {
+        this.rowCount = rowCount;
+        this.cellCount = cellCount;
+        this.conversionNanos = conversionNanos;
+        this.partRowCounts = partRowCounts;
+    }
+
+    /**
+     * Number of CSV rows written, including empty rows and repeated header rows.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Number of cells written with a value.
+     */
+    public long getCellCount() {
+        return cellCount;
+    }
+
+    /**
+     * Time spent converting the sheet. When the sheets are converted one after another this includes the writes to
+     * the output, which happen while the sheet is converted.
+     */
+    public long getConversionNanos() {
+        return conversionNanos;
+    }
+
+    /**
+     * Number of CSV rows written to each part of a sheet split by row count. A repeated header row is only counted
+     * in the first part, so the counts add up to the rows of the sheet.
+     */
+    public long[] getPartRowCounts() {
+        return partRowCounts;
+    }
+}
@@ -0,0 +1,83 @@
+package com.ifi.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CSV writer that moves on to the next part of the sheet once a part holds the maximum number of rows. When the
+ * header is repeated, the first row of the sheet is written again at the start of every part and is not counted.
+ */
+class SplittingCSVWriter extends CSVDialectWriter {
+    private final int maxRowsPerPart;
+    private final NextPart nextPart;
+    private final List<Long> partRowCounts = new ArrayList<>();
+    private List<String> header;
+    private boolean headerRow;
+    private int partRowCount;
+
+    SplittingCSVWriter(CSVDialect dialect, Writer writer, int maxRowsPerPart, boolean repeatHeader, NextPart nextPart) {
+        super(dialect, writer);
+        this.maxRowsPerPart = maxRowsPerPart;
+        this.nextPart = nextPart;
+        if (repeatHeader) {
+            this.header = new ArrayList<>();
+            this.headerRow = true;
+        }
+    }
+
+    @Override
+    public void writeField(String value) throws IOException {
+        super.writeField(value);
+        if (headerRow) {
+            header.add(value);
+        }
+    }
+
+    @Override
+    public void endRecord() throws IOException {
+        super.endRecord();
+        if (headerRow) {
+            headerRow = false;
+        } else {
+            partRowCount++;
+        }
+    }
+
+    @Override
+    protected void startRecord() throws IOException {
+        if (partRowCount < maxRowsPerPart) {
+            return;
+        }
+        partRowCounts.add(currentPartRowCount());
+        partRowCount = 0;
+        setWriter(nextPart.next());
+        if (header != null) {
+            for (String value : header) {
+                super.writeField(value);
+            }
+            super.endRecord();
+        }
+    }
+
+    /**
+     * Number of rows written to each part so far, the header row counted in the first part only.
+     */
+    long[] getPartRowCounts() {
+        long[] counts = new long[partRowCounts.size() + 1];
+        for (int i = 0; i < partRowCounts.size(); i++) {
+            counts[i] = partRowCounts.get(i);
+        }
+        counts[partRowCounts.size()] = currentPartRowCount();
+        return counts;
+    }
+
+    private long currentPartRowCount() {
+        return header != null && partRowCounts.isEmpty() && !headerRow ? partRowCount + 1 : partRowCount;
+    }
+
+    interface NextPart {
+        Writer next() throws IOException;
+    }
+}
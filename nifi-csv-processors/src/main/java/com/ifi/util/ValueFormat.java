@@ -0,0 +1,11 @@
+package com.ifi.util;
+
+/**
+ * How cell values are written to CSV.
+ */
+public enum ValueFormat {
+    /** As Excel displays them, using the number and date format of the cell style. */
+    FORMATTED,
+    /** Numbers in canonical form, dates as ISO-8601 and booleans as true or false, regardless of the cell style. */
+    RAW
+}
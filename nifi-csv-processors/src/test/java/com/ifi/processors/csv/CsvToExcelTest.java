@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ifi.processors.csv;
+
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.util.MockFlowFile;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CsvToExcelTest {
+
+    private TestRunner testRunner;
+
+    @Before
+    public void init() {
+        testRunner = TestRunners.newTestRunner(CsvToExcel.class);
+    }
+
+    @Test
+    public void testProcessor() throws IOException {
+        testRunner.enqueue("\uFEFFname,comment\nalpha,\"a, \"\"quoted\"\" value\"\nbeta,\n".getBytes(StandardCharsets.UTF_8),
+                Collections.singletonMap(CoreAttributes.FILENAME.key(), "export.csv"));
+        testRunner.run();
+
+        testRunner.assertTransferCount(CsvToExcel.SUCCESS, 1);
+        testRunner.assertTransferCount(CsvToExcel.ORIGINAL, 1);
+        testRunner.assertTransferCount(CsvToExcel.FAILURE, 0);
+        MockFlowFile excelFile = testRunner.getFlowFilesForRelationship(CsvToExcel.SUCCESS).get(0);
+        excelFile.assertAttributeEquals(CoreAttributes.FILENAME.key(), "export" + CsvToExcel.XLSX_EXTENSION);
+        excelFile.assertAttributeEquals(CoreAttributes.MIME_TYPE.key(), CsvToExcel.XLSX_MIME_TYPE);
+        excelFile.assertAttributeEquals(ExcelToCsv.ROW_NUM_ATT, "3");
+        excelFile.assertAttributeEquals(ExcelToCsv.SHEET_COUNT_ATT, "1");
+        try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(excelFile.toByteArray()))) {
+            Sheet sheet = workbook.getSheet("Sheet");
+            assertEquals(2, sheet.getLastRowNum());
+            assertEquals("name", sheet.getRow(0).getCell(0).getStringCellValue());
+            assertEquals("a, \"quoted\" value", sheet.getRow(1).getCell(1).getStringCellValue());
+            assertNull(sheet.getRow(2).getCell(1));
+        }
+    }
+
+    @Test
+    public void testSheetRollover() throws IOException {
+        testRunner.setProperty(CsvToExcel.SHEET_NAME, "data");
+        testRunner.setProperty(CsvToExcel.MAX_ROWS_PER_SHEET, "3");
+        testRunner.setProperty(CsvToExcel.REPEAT_HEADER_ROW, "true");
+        testRunner.setProperty(CsvToExcel.ROW_ACCESS_WINDOW, "1");
+        testRunner.setProperty(ExcelToCsv.DELIMITER, ";");
+        StringBuilder csv = new StringBuilder("id;value\n");
+        for (int i = 1; i <= 5; i++) {
+            csv.append(i).append(';').append("row ").append(i).append('\n');
+        }
+        testRunner.enqueue(csv.toString());
+        testRunner.run();
+
+        testRunner.assertTransferCount(CsvToExcel.SUCCESS, 1);
+        MockFlowFile excelFile = testRunner.getFlowFilesForRelationship(CsvToExcel.SUCCESS).get(0);
+        excelFile.assertAttributeEquals(ExcelToCsv.ROW_NUM_ATT, "6");
+        excelFile.assertAttributeEquals(ExcelToCsv.SHEET_COUNT_ATT, "3");
+        try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(excelFile.toByteArray()))) {
+            assertEquals("data", workbook.getSheetName(0));
+            assertEquals("data-2", workbook.getSheetName(1));
+            assertEquals("data-3", workbook.getSheetName(2));
+            Sheet lastSheet = workbook.getSheetAt(2);
+            assertEquals(1, lastSheet.getLastRowNum());
+            assertEquals("id", lastSheet.getRow(0).getCell(0).getStringCellValue());
+            assertEquals("row 5", lastSheet.getRow(1).getCell(1).getStringCellValue());
+        }
+    }
+
+    @Test
+    public void testTypedCells() throws IOException {
+        String csv = "name,amount,active,code,id\nalpha,12.5,TRUE,007,1234567890123456789\nbeta,-3e2,FALSE,1e999,42\n";
+        testRunner.enqueue(csv);
+        testRunner.run();
+
+        testRunner.assertTransferCount(CsvToExcel.SUCCESS, 1);
+        MockFlowFile excelFile = testRunner.getFlowFilesForRelationship(CsvToExcel.SUCCESS).get(0);
+        try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(excelFile.toByteArray()))) {
+            Row row = workbook.getSheetAt(0).getRow(1);
+            assertEquals(CellType.NUMERIC, row.getCell(1).getCellType());
+            assertEquals(12.5, row.getCell(1).getNumericCellValue(), 0);
+            assertEquals(CellType.BOOLEAN, row.getCell(2).getCellType());
+            assertTrue(row.getCell(2).getBooleanCellValue());
+            assertEquals("007", row.getCell(3).getStringCellValue());
+            assertEquals("1234567890123456789", row.getCell(4).getStringCellValue());
+            row = workbook.getSheetAt(0).getRow(2);
+            assertEquals(-300, row.getCell(1).getNumericCellValue(), 0);
+            assertFalse(row.getCell(2).getBooleanCellValue());
+            assertEquals("1e999", row.getCell(3).getStringCellValue());
+            assertEquals(CellType.NUMERIC, row.getCell(4).getCellType());
+        }
+
+        testRunner.clearTransferState();
+        testRunner.setProperty(CsvToExcel.TYPED_CELLS, "false");
+        testRunner.enqueue(csv);
+        testRunner.run();
+
+        excelFile = testRunner.getFlowFilesForRelationship(CsvToExcel.SUCCESS).get(0);
+        try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(excelFile.toByteArray()))) {
+            Row row = workbook.getSheetAt(0).getRow(1);
+            assertEquals(CellType.STRING, row.getCell(1).getCellType());
+            assertEquals("12.5", row.getCell(1).getStringCellValue());
+            assertEquals("TRUE", row.getCell(2).getStringCellValue());
+        }
+    }
+
+    @Test
+    public void testCellTooLong() {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i <= 32767; i++) {
+            csv.append('x');
+        }
+        testRunner.enqueue(csv.toString());
+        testRunner.run();
+
+        testRunner.assertTransferCount(CsvToExcel.SUCCESS, 0);
+        testRunner.assertTransferCount(CsvToExcel.ORIGINAL, 0);
+        testRunner.assertTransferCount(CsvToExcel.FAILURE, 1);
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.ifi.processors.csv;
+
+import org.apache.nifi.reporting.InitializationException;
+import org.apache.nifi.serialization.MalformedRecordException;
+import org.apache.nifi.serialization.RecordReader;
+import org.apache.nifi.serialization.record.Record;
+import org.apache.nifi.serialization.record.RecordFieldType;
+import org.apache.nifi.serialization.record.RecordSchema;
+import org.apache.nifi.util.NoOpProcessor;
+import org.apache.nifi.util.TestRunner;
+import org.apache.nifi.util.TestRunners;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ExcelReaderTest {
+
+    private TestRunner testRunner;
+    private ExcelReader reader;
+
+    @Before
+    public void init() throws InitializationException {
+        testRunner = TestRunners.newTestRunner(NoOpProcessor.class);
+        reader = new ExcelReader();
+        testRunner.addControllerService("reader", reader);
+    }
+
+    @Test
+    public void testTypedRecords() throws IOException, MalformedRecordException {
+        testRunner.setProperty(reader, ExcelReader.SCHEMA_INFERENCE_SAMPLE_SIZE, "2");
+        testRunner.enableControllerService(reader);
+        Date date = new Date(1577836800000L);
+        byte[] workbook = createWorkbook(date, "3", "4.5");
+
+        try (RecordReader recordReader = createRecordReader(workbook)) {
+            RecordSchema schema = recordReader.getSchema();
+            assertEquals(5, schema.getFieldCount());
+            assertEquals("name", schema.getField(0).getFieldName());
+            assertEquals(RecordFieldType.STRING.getDataType(), schema.getField(0).getDataType());
+            assertEquals(RecordFieldType.LONG.getDataType(), schema.getDataType("count").get());
+            assertEquals(RecordFieldType.DOUBLE.getDataType(), schema.getDataType("price").get());
+            assertEquals(RecordFieldType.TIMESTAMP.getDataType(), schema.getDataType("day").get());
+            // a column without a name in the header row is named after its letter
+            assertEquals(RecordFieldType.BOOLEAN.getDataType(), schema.getDataType("E").get());
+
+            Record record = recordReader.nextRecord();
+            assertEquals("row 1", record.getValue("name"));
+            assertEquals(1L, record.getValue("count"));
+            assertEquals(1.5, record.getValue("price"));
+            assertEquals(new Timestamp(date.getTime()), record.getValue("day"));
+            assertEquals(true, record.getValue("E"));
+            assertEquals(2L, recordReader.nextRecord().getValue("count"));
+            // rows read after the sample are converted to the inferred types
+            record = recordReader.nextRecord();
+            assertEquals(3L, record.getValue("count"));
+            assertEquals(4.5, record.getValue("price"));
+            assertNull(recordReader.nextRecord());
+        }
+    }
+
+    @Test
+    public void testNoHeaderRow() throws IOException, MalformedRecordException {
+        testRunner.setProperty(reader, ExcelReader.FIRST_ROW_IS_HEADER, "false");
+        testRunner.enableControllerService(reader);
+
+        try (RecordReader recordReader = createRecordReader(createWorkbook(new Date(), "3", "4.5"))) {
+            assertEquals(RecordFieldType.STRING.getDataType(), recordReader.getSchema().getDataType("B").get());
+            assertEquals("name", recordReader.nextRecord().getValue("A"));
+            assertEquals("1", recordReader.nextRecord().getValue("B"));
+        }
+    }
+
+    @Test(expected = MalformedRecordException.class)
+    public void testValueNotOfInferredType() throws IOException, MalformedRecordException {
+        testRunner.setProperty(reader, ExcelReader.SCHEMA_INFERENCE_SAMPLE_SIZE, "2");
+        testRunner.enableControllerService(reader);
+
+        try (RecordReader recordReader = createRecordReader(createWorkbook(new Date(), "many", "4.5"))) {
+            while (recordReader.nextRecord() != null) {
+                // the third record fails
+            }
+        }
+    }
+
+    @Test
+    public void testXlsWorkbook() throws IOException, MalformedRecordException {
+        testRunner.enableControllerService(reader);
+        Date date = new Date(1577836800000L);
+
+        try (RecordReader recordReader = createRecordReader(createWorkbook(new HSSFWorkbook(), date, "3", "4.5"))) {
+            assertEquals(RecordFieldType.DOUBLE.getDataType(), recordReader.getSchema().getDataType("price").get());
+            Record record = recordReader.nextRecord();
+            assertEquals("row 1", record.getValue("name"));
+            assertEquals(1L, record.getValue("count"));
+            assertEquals(new Timestamp(date.getTime()), record.getValue("day"));
+            assertEquals(true, record.getValue("E"));
+        }
+    }
+
+    @Test(expected = MalformedRecordException.class)
+    public void testFractionInLongField() throws IOException, MalformedRecordException {
+        testRunner.setProperty(reader, ExcelReader.SCHEMA_INFERENCE_SAMPLE_SIZE, "2");
+        testRunner.enableControllerService(reader);
+
+        try (RecordReader recordReader = createRecordReader(createWorkbook(new Date(), "3.5", "4.5"))) {
+            assertEquals(RecordFieldType.LONG.getDataType(), recordReader.getSchema().getDataType("count").get());
+            while (recordReader.nextRecord() != null) {
+                // the third record fails instead of reading 3
+            }
+        }
+    }
+
+    private RecordReader createRecordReader(byte[] workbook) throws IOException, MalformedRecordException {
+        return reader.createRecordReader(Collections.emptyMap(), new ByteArrayInputStream(workbook), workbook.length,
+                testRunner.getLogger());
+    }
+
+    /**
+     * Creates a workbook with a header row and three rows, the last one only read after a sample of two rows.
+     */
+    private static byte[] createWorkbook(Date date, String lastCount, String lastPrice) throws IOException {
+        return createWorkbook(new XSSFWorkbook(), date, lastCount, lastPrice);
+    }
+
+    private static byte[] createWorkbook(Workbook newWorkbook, Date date, String lastCount, String lastPrice) throws IOException {
+        try (Workbook workbook = newWorkbook) {
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+            Sheet sheet = workbook.createSheet("data");
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue("name");
+            header.createCell(1).setCellValue("count");
+            header.createCell(2).setCellValue("price");
+            header.createCell(3).setCellValue("day");
+            for (int i = 1; i <= 3; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue("row " + i);
+                if (i < 3) {
+                    row.createCell(1).setCellValue(i);
+                    row.createCell(2).setCellValue(i + 0.5);
+                } else if (lastCount.matches("[0-9.]+")) {
+                    row.createCell(1).setCellValue(Double.parseDouble(lastCount));
+                    row.createCell(2).setCellValue(Double.parseDouble(lastPrice));
+                } else {
+                    row.createCell(1).setCellValue(lastCount);
+                }
+                row.createCell(3).setCellValue(date);
+                row.getCell(3).setCellStyle(dateStyle);
+                row.createCell(4).setCellValue(i % 2 == 1);
+            }
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            workbook.write(outputStream);
+            return outputStream.toByteArray();
+        }
+    }
+}
@@ -16,11 +16,43 @@
  */
 package com.ifi.processors.csv;
 
+import org.apache.commons.compress.archivers.ArchiveException;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.apache.commons.io.IOUtils;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
+import org.apache.nifi.provenance.ProvenanceEventType;
+import org.apache.nifi.util.MockFlowFile;
 import org.apache.nifi.util.TestRunner;
 import org.apache.nifi.util.TestRunners;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
 
 public class ExcelToCsvTest {
 
@@ -32,7 +64,592 @@ public class ExcelToCsvTest {
     }
 
     @Test
-    public void testProcessor() {
+    public void testProcessor() throws IOException {
+        testRunner.enqueue(getResource("one-sheet-no-formula-2007.xlsx"),
+                Collections.singletonMap(CoreAttributes.FILENAME.key(), "one-sheet-no-formula-2007.xlsx"));
+        testRunner.run();
+
+        testRunner.assertTransferCount(ExcelToCsv.SUCCESS, 1);
+        testRunner.assertTransferCount(ExcelToCsv.ORIGINAL, 1);
+        testRunner.assertTransferCount(ExcelToCsv.FAILURE, 0);
+        MockFlowFile csvFile = testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS).get(0);
+        csvFile.assertAttributeEquals(ExcelToCsv.ROW_NUM_ATT, "10");
+        csvFile.assertAttributeEquals(CoreAttributes.MIME_TYPE.key(), ExcelToCsv.CSV_MIME_TYPE);
+        csvFile.assertAttributeEquals(CoreAttributes.FILENAME.key(),
+                "one-sheet-no-formula-2007" + ExcelToCsv.SHEET_NAME_SEPARATOR +
+                        csvFile.getAttribute(ExcelToCsv.SHEET_NAME_ATT) + ExcelToCsv.CSV_EXTENSION);
+    }
+
+    @Test
+    public void testLegacyWorkbook() throws IOException {
+        testRunner.enqueue(getResource("one-sheet-no-formula-972003.xls"));
+        testRunner.run();
+
+        testRunner.assertTransferCount(ExcelToCsv.SUCCESS, 1);
+        testRunner.assertTransferCount(ExcelToCsv.ORIGINAL, 1);
+        testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS).get(0).assertAttributeEquals(ExcelToCsv.ROW_NUM_ATT, "501");
+    }
+
+    @Test
+    public void testStreamingAndWorkbookReadProduceSameCsv() throws IOException {
+        testRunner.enqueue(getResource("one-sheet-no-formula-2007.xlsx"));
+        testRunner.run();
+        String streamed = new String(testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS).get(0).toByteArray());
+
+        testRunner.clearTransferState();
+        testRunner.setProperty(ExcelToCsv.STREAMING_READ, "false");
+        testRunner.enqueue(getResource("one-sheet-no-formula-2007.xlsx"));
+        testRunner.run();
+        List<MockFlowFile> csvFiles = testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS);
+
+        assertEquals(1, csvFiles.size());
+        assertEquals(streamed, new String(csvFiles.get(0).toByteArray()));
+    }
+
+    @Test
+    public void testFormulaEvaluationNeedsWorkbookRead() {
+        testRunner.assertValid();
+        testRunner.setProperty(ExcelToCsv.FORMULA_EVALUATION, ExcelToCsv.FORMULA_EVALUATE);
+        testRunner.assertNotValid();
+        testRunner.setProperty(ExcelToCsv.STREAMING_READ, "false");
+        testRunner.assertValid();
+    }
+
+    @Test
+    public void testParallelSheetConversionKeepsSheetOrder() throws IOException {
+        byte[] workbook = createWorkbook(6, 300);
+        testRunner.enqueue(workbook, Collections.singletonMap(CoreAttributes.FILENAME.key(), "report.xlsx"));
+        testRunner.run();
+        List<MockFlowFile> sequential = testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS);
+
+        testRunner.clearTransferState();
+        testRunner.setProperty(ExcelToCsv.SHEET_CONVERSION_PARALLELISM, "4");
+        testRunner.enqueue(workbook, Collections.singletonMap(CoreAttributes.FILENAME.key(), "report.xlsx"));
+        testRunner.run();
+        List<MockFlowFile> parallel = testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS);
+
+        assertEquals(6, parallel.size());
+        for (int i = 0; i < sequential.size(); i++) {
+            parallel.get(i).assertAttributeEquals(CoreAttributes.FILENAME.key(), "report-sheet" + i + ExcelToCsv.CSV_EXTENSION);
+            parallel.get(i).assertAttributeEquals(ExcelToCsv.ROW_NUM_ATT, sequential.get(i).getAttribute(ExcelToCsv.ROW_NUM_ATT));
+            parallel.get(i).assertContentEquals(sequential.get(i).toByteArray());
+        }
+    }
+
+    @Test
+    public void testSplitSheetByMaxRows() throws IOException {
+        byte[] workbook = createWorkbook(2, 25);
+        testRunner.setProperty(ExcelToCsv.EXTRACT_SHEETS, "sheet1");
+        testRunner.setProperty(ExcelToCsv.MAX_ROWS_PER_FLOWFILE, "10");
+        testRunner.setProperty(ExcelToCsv.REPEAT_HEADER_ROW, "true");
+
+        for (String[] settings : new String[][]{{"true", "1"}, {"true", "2"}, {"false", "1"}}) {
+            testRunner.clearTransferState();
+            testRunner.setProperty(ExcelToCsv.STREAMING_READ, settings[0]);
+            testRunner.setProperty(ExcelToCsv.SHEET_CONVERSION_PARALLELISM, settings[1]);
+            testRunner.enqueue(workbook, Collections.singletonMap(CoreAttributes.FILENAME.key(), "report.xlsx"));
+            testRunner.run();
+
+            List<MockFlowFile> fragments = testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS);
+            assertEquals(3, fragments.size());
+            String fragmentId = fragments.get(0).getAttribute(ExcelToCsv.FRAGMENT_ID_ATT);
+            int[][] rowRanges = {{1, 10}, {11, 20}, {21, 24}};
+            for (int i = 0; i < fragments.size(); i++) {
+                MockFlowFile fragment = fragments.get(i);
+                StringBuilder expected = new StringBuilder("row 0,0\n");
+                for (int j = rowRanges[i][0]; j <= rowRanges[i][1]; j++) {
+                    expected.append("row ").append(j).append(',').append(j).append('\n');
+                }
+                fragment.assertContentEquals(expected.toString());
+                fragment.assertAttributeEquals(ExcelToCsv.FRAGMENT_ID_ATT, fragmentId);
+                fragment.assertAttributeEquals(ExcelToCsv.FRAGMENT_INDEX_ATT, String.valueOf(i));
+                fragment.assertAttributeEquals(ExcelToCsv.FRAGMENT_COUNT_ATT, "3");
+                fragment.assertAttributeEquals(ExcelToCsv.SEGMENT_ORIGINAL_FILENAME_ATT, "report-sheet1.csv");
+                fragment.assertAttributeEquals(CoreAttributes.FILENAME.key(), "report-sheet1-" + i + ".csv");
+                fragment.assertAttributeEquals(ExcelToCsv.SHEET_NAME_ATT, "sheet1");
+                fragment.assertAttributeEquals(ExcelToCsv.ROW_NUM_ATT, String.valueOf(i == 0 ? 11 : rowRanges[i][1] - rowRanges[i][0] + 1));
+                fragment.assertAttributeEquals(ExcelToCsv.SHEET_ROW_NUM_ATT, "25");
+            }
+        }
+    }
+
+    @Test
+    public void testMetricsCountersAndAttributes() throws IOException {
+        testRunner.setProperty(ExcelToCsv.WRITE_METRICS_ATTRIBUTES, "true");
+        testRunner.enqueue(createWorkbook(2, 5));
+        testRunner.run();
+
+        List<MockFlowFile> csvFiles = testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS);
+        assertEquals(2, csvFiles.size());
+        long bytesWritten = 0;
+        for (MockFlowFile csvFile : csvFiles) {
+            csvFile.assertAttributeEquals(ExcelToCsv.SHEET_CELLS_ATT, "10");
+            csvFile.assertAttributeExists(ExcelToCsv.SHEET_CONVERSION_MILLIS_ATT);
+            bytesWritten += csvFile.getSize();
+        }
+        assertEquals(10, testRunner.getCounterValue(ExcelToCsv.ROWS_COUNTER).longValue());
+        assertEquals(20, testRunner.getCounterValue(ExcelToCsv.CELLS_COUNTER).longValue());
+        assertEquals(bytesWritten, testRunner.getCounterValue(ExcelToCsv.BYTES_WRITTEN_COUNTER).longValue());
+
+        MockFlowFile original = testRunner.getFlowFilesForRelationship(ExcelToCsv.ORIGINAL).get(0);
+        original.assertAttributeEquals(ExcelToCsv.ROWS_ATT, "10");
+        original.assertAttributeEquals(ExcelToCsv.CELLS_ATT, "20");
+        original.assertAttributeEquals(ExcelToCsv.BYTES_WRITTEN_ATT, String.valueOf(bytesWritten));
+        original.assertAttributeExists(ExcelToCsv.OPEN_MILLIS_ATT);
+        assertTrue(testRunner.getProvenanceEvents().stream().anyMatch(event ->
+                event.getEventType() == ProvenanceEventType.ROUTE && event.getDetails().startsWith("2 csv FlowFiles")));
+    }
+
+    @Test
+    public void testConcurrentTasks() throws IOException {
+        byte[] workbook = createWorkbook(3, 200);
+        testRunner.setThreadCount(4);
+        testRunner.setProperty(ExcelToCsv.STREAMING_READ, "false");
+        for (int i = 0; i < 20; i++) {
+            testRunner.enqueue(workbook);
+        }
+        testRunner.run(20);
+
+        testRunner.assertTransferCount(ExcelToCsv.SUCCESS, 60);
+        testRunner.assertTransferCount(ExcelToCsv.ORIGINAL, 20);
+        List<MockFlowFile> csvFiles = testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS);
+        for (MockFlowFile csvFile : csvFiles) {
+            String sheetName = csvFile.getAttribute(ExcelToCsv.SHEET_NAME_ATT);
+            for (MockFlowFile other : csvFiles) {
+                if (sheetName.equals(other.getAttribute(ExcelToCsv.SHEET_NAME_ATT))) {
+                    other.assertContentEquals(csvFile.toByteArray());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNotAWorkbook() throws IOException {
+        testRunner.enqueue(getResource("not-a-workbook.xls"));
+        testRunner.run();
+
+        testRunner.assertAllFlowFilesTransferred(ExcelToCsv.FAILURE, 1);
+        assertTrue(testRunner.getFlowFilesForRelationship(ExcelToCsv.FAILURE).get(0)
+                .getAttribute(ExcelToCsv.class.getName() + ".error").length() > 0);
+    }
+
+    @Test
+    public void testBatchRoutesFailuresIndividually() throws IOException {
+        byte[] workbook = createWorkbook(1, 3);
+        testRunner.setProperty(ExcelToCsv.BATCH_SIZE, "10");
+        testRunner.setProperty(ExcelToCsv.BATCH_DURATION, "1 min");
+        testRunner.enqueue(workbook);
+        testRunner.enqueue(getResource("not-a-workbook.xls"));
+        testRunner.enqueue(workbook);
+        testRunner.run();
+
+        testRunner.assertQueueEmpty();
+        testRunner.assertTransferCount(ExcelToCsv.SUCCESS, 2);
+        testRunner.assertTransferCount(ExcelToCsv.ORIGINAL, 2);
+        testRunner.assertTransferCount(ExcelToCsv.FAILURE, 1);
+    }
+
+    @Test
+    public void testSpillToDisk() throws IOException {
+        for (String fileName : new String[]{"one-sheet-no-formula-2007.xlsx", "one-sheet-no-formula-972003.xls", "not-a-workbook.xls"}) {
+            for (String streamingRead : new String[]{"true", "false"}) {
+                testRunner.setProperty(ExcelToCsv.STREAMING_READ, streamingRead);
+                testRunner.removeProperty(ExcelToCsv.SPILL_THRESHOLD);
+                testRunner.clearTransferState();
+                testRunner.enqueue(getResource(fileName));
+                testRunner.run();
+                List<MockFlowFile> expected = testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS);
+
+                testRunner.setProperty(ExcelToCsv.SPILL_THRESHOLD, "1 B");
+                testRunner.clearTransferState();
+                testRunner.enqueue(getResource(fileName));
+                testRunner.run();
+                List<MockFlowFile> actual = testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS);
+
+                assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    actual.get(i).assertContentEquals(expected.get(i).toByteArray());
+                }
+            }
+        }
+        try (Stream<Path> tempFiles = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+            assertFalse(tempFiles.anyMatch(path -> path.getFileName().toString().startsWith(ExcelToCsv.TEMP_FILE_PREFIX)));
+        }
+    }
+
+    @Test
+    public void testSheetSelection() throws IOException {
+        byte[] workbook = createWorkbook(4, 3);
+        for (String streamingRead : new String[]{"true", "false"}) {
+            testRunner.setProperty(ExcelToCsv.STREAMING_READ, streamingRead);
+            testRunner.setProperty(ExcelToCsv.EXTRACT_SHEETS, "SHEET3");
+            testRunner.setProperty(ExcelToCsv.SHEET_INDEXES, "1");
+            testRunner.removeProperty(ExcelToCsv.SHEET_NAME_PATTERN);
+            assertSelectedSheets(workbook, "sheet3", "sheet1");
+
+            testRunner.removeProperty(ExcelToCsv.EXTRACT_SHEETS);
+            testRunner.setProperty(ExcelToCsv.SHEET_INDEXES, "2-3");
+            testRunner.setProperty(ExcelToCsv.SHEET_NAME_PATTERN, "sheet[02]");
+            assertSelectedSheets(workbook, "sheet0", "sheet2", "sheet3");
+        }
+    }
+
+    private void assertSelectedSheets(byte[] workbook, String... sheetNames) {
+        testRunner.clearTransferState();
+        testRunner.enqueue(workbook);
+        testRunner.run();
+        List<MockFlowFile> csvFiles = testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS);
+        assertEquals(sheetNames.length, csvFiles.size());
+        for (int i = 0; i < sheetNames.length; i++) {
+            csvFiles.get(i).assertAttributeEquals(ExcelToCsv.SHEET_NAME_ATT, sheetNames[i]);
+        }
+    }
+
+    @Test
+    public void testManifest() throws IOException {
+        testRunner.setProperty(ExcelToCsv.OUTPUT_CONTENT, ExcelToCsv.OUTPUT_MANIFEST);
+        testRunner.setProperty(ExcelToCsv.SHEET_INDEXES, "0-1");
+        testRunner.enqueue(createWorkbook(3, 5), Collections.singletonMap(CoreAttributes.FILENAME.key(), "report.xlsx"));
+        testRunner.run();
+
+        testRunner.assertTransferCount(ExcelToCsv.SUCCESS, 1);
+        testRunner.assertTransferCount(ExcelToCsv.ORIGINAL, 1);
+        MockFlowFile manifest = testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS).get(0);
+        manifest.assertContentEquals("sheet index,sheet name,dimension,row count\n0,sheet0,A1:B5,5\n1,sheet1,A1:B5,5\n");
+        manifest.assertAttributeEquals(CoreAttributes.FILENAME.key(), "report-manifest.csv");
+
+        testRunner.clearTransferState();
+        testRunner.removeProperty(ExcelToCsv.SHEET_INDEXES);
+        testRunner.enqueue(getResource("one-sheet-no-formula-972003.xls"));
+        testRunner.run();
+        String[] lines = new String(testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS).get(0).toByteArray(),
+                StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[1].matches("0,.+,A1:[A-Z]+\\d+,\\d+"));
+    }
+
+    @Test
+    public void testCellRangeAndColumns() throws IOException {
+        testRunner.setProperty(ExcelToCsv.SHEET_INDEXES, "1");
+        testRunner.setProperty(ExcelToCsv.CELL_RANGE, "a3:B5");
+        byte[] workbook = createWorkbook(2, 10);
+        testRunner.enqueue(workbook);
+        testRunner.run();
+
+        MockFlowFile csvFile = testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS).get(0);
+        csvFile.assertContentEquals("row 2,2\nrow 3,3\nrow 4,4\n");
+        csvFile.assertAttributeEquals(ExcelToCsv.ROW_NUM_ATT, "3");
+
+        testRunner.clearTransferState();
+        testRunner.setProperty(ExcelToCsv.CELL_RANGE, "1:3");
+        testRunner.setProperty(ExcelToCsv.COLUMNS, "B");
+        testRunner.enqueue(workbook);
+        testRunner.run();
+        testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS).get(0).assertContentEquals("0\n1\n2\n");
+
+        testRunner.clearTransferState();
+        testRunner.removeProperty(ExcelToCsv.COLUMNS);
+        testRunner.setProperty(ExcelToCsv.COLUMN_NAMES, "ROW 0");
+        testRunner.setProperty(ExcelToCsv.STREAMING_READ, "false");
+        testRunner.enqueue(workbook);
+        testRunner.run();
+        testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS).get(0).assertContentEquals("row 0\nrow 1\nrow 2\n");
+    }
+
+    @Test
+    public void testOutputCompression() throws IOException {
+        byte[] workbook = createWorkbook(1, 500);
+        testRunner.enqueue(workbook, Collections.singletonMap(CoreAttributes.FILENAME.key(), "report.xlsx"));
+        testRunner.run();
+        byte[] expected = testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS).get(0).toByteArray();
+
+        String[][] codecs = {
+                {ExcelToCsv.COMPRESSION_GZIP, CompressorStreamFactory.GZIP, ".csv.gz"},
+                {ExcelToCsv.COMPRESSION_LZ4, CompressorStreamFactory.LZ4_FRAMED, ".csv.lz4"},
+                {ExcelToCsv.COMPRESSION_SNAPPY, CompressorStreamFactory.SNAPPY_FRAMED, ".csv.sz"}};
+        for (String[] codec : codecs) {
+            for (String level : new String[]{"1", "5", "9"}) {
+                testRunner.clearTransferState();
+                testRunner.setProperty(ExcelToCsv.OUTPUT_COMPRESSION, codec[0]);
+                testRunner.setProperty(ExcelToCsv.COMPRESSION_LEVEL, level);
+                testRunner.enqueue(workbook, Collections.singletonMap(CoreAttributes.FILENAME.key(), "report.xlsx"));
+                testRunner.run();
+
+                MockFlowFile csvFile = testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS).get(0);
+                csvFile.assertAttributeEquals(CoreAttributes.FILENAME.key(), "report-sheet0" + codec[2]);
+                csvFile.assertAttributeEquals(ExcelToCsv.UNCOMPRESSED_SIZE_ATT, String.valueOf(expected.length));
+                assertTrue(Double.parseDouble(csvFile.getAttribute(ExcelToCsv.COMPRESSION_RATIO_ATT)) > 1);
+                try (InputStream inputStream = new CompressorStreamFactory().createCompressorInputStream(codec[1],
+                        new ByteArrayInputStream(csvFile.toByteArray()))) {
+                    assertArrayEquals(expected, IOUtils.toByteArray(inputStream));
+                } catch (CompressorException exception) {
+                    throw new IOException(exception);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSingleFlowFileOutput() throws IOException, ArchiveException {
+        byte[] workbook = createWorkbook(2, 3);
+        testRunner.setProperty(ExcelToCsv.SHEET_OUTPUT, ExcelToCsv.SHEET_OUTPUT_MERGED);
+        for (String streamingRead : new String[]{"true", "false"}) {
+            testRunner.setProperty(ExcelToCsv.STREAMING_READ, streamingRead);
+            testRunner.clearTransferState();
+            testRunner.enqueue(workbook, Collections.singletonMap(CoreAttributes.FILENAME.key(), "report.xlsx"));
+            testRunner.run();
+
+            testRunner.assertTransferCount(ExcelToCsv.SUCCESS, 1);
+            MockFlowFile merged = testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS).get(0);
+            merged.assertContentEquals("sheet0,row 0,0\nsheet0,row 1,0\nsheet0,row 2,0\n" +
+                    "sheet1,row 0,0\nsheet1,row 1,1\nsheet1,row 2,2\n");
+            merged.assertAttributeEquals(CoreAttributes.FILENAME.key(), "report.csv");
+            merged.assertAttributeEquals(ExcelToCsv.SHEET_COUNT_ATT, "2");
+            merged.assertAttributeEquals("sheet.1.name", "sheet1");
+            merged.assertAttributeEquals("sheet.1.row.count", "3");
+        }
+
+        String[][] archives = {{ExcelToCsv.SHEET_OUTPUT_TAR, ArchiveStreamFactory.TAR}, {ExcelToCsv.SHEET_OUTPUT_ZIP, ArchiveStreamFactory.ZIP}};
+        for (String[] archive : archives) {
+            testRunner.setProperty(ExcelToCsv.SHEET_OUTPUT, archive[0]);
+            testRunner.clearTransferState();
+            testRunner.enqueue(workbook);
+            testRunner.run();
+
+            testRunner.assertTransferCount(ExcelToCsv.SUCCESS, 1);
+            byte[] content = testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS).get(0).toByteArray();
+            try (ArchiveInputStream inputStream = new ArchiveStreamFactory().createArchiveInputStream(archive[1],
+                    new ByteArrayInputStream(content))) {
+                for (int i = 0; i < 2; i++) {
+                    assertEquals("sheet" + i + ".csv", inputStream.getNextEntry().getName());
+                    assertEquals("row 2," + (2 * i) + "\n", new String(IOUtils.toByteArray(inputStream), StandardCharsets.UTF_8).split("\n", 3)[2]);
+                }
+                assertNull(inputStream.getNextEntry());
+            }
+        }
+    }
+
+    @Test
+    public void testConversionCache() throws IOException {
+        Path cacheDirectory = Files.createTempDirectory("conversion-cache");
+        try {
+            byte[] workbook = createWorkbook(2, 50);
+            testRunner.setProperty(ExcelToCsv.CACHE_DIRECTORY, cacheDirectory.toString());
+            testRunner.enqueue(workbook);
+            testRunner.run();
+            List<MockFlowFile> converted = testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS);
+
+            testRunner.clearTransferState();
+            testRunner.enqueue(workbook);
+            testRunner.run();
+            List<MockFlowFile> cached = testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS);
+
+            assertEquals(1, testRunner.getCounterValue(ExcelToCsv.CACHE_MISSES_COUNTER).longValue());
+            assertEquals(1, testRunner.getCounterValue(ExcelToCsv.CACHE_HITS_COUNTER).longValue());
+            assertEquals(2, cached.size());
+            for (int i = 0; i < converted.size(); i++) {
+                cached.get(i).assertAttributeEquals(ExcelToCsv.SHEET_NAME_ATT, converted.get(i).getAttribute(ExcelToCsv.SHEET_NAME_ATT));
+                cached.get(i).assertAttributeEquals(ExcelToCsv.ROW_NUM_ATT, "50");
+                cached.get(i).assertContentEquals(converted.get(i).toByteArray());
+            }
+
+            // a conversion with another delimiter must not reuse the cached csv
+            testRunner.setProperty(ExcelToCsv.DELIMITER, ";");
+            testRunner.clearTransferState();
+            testRunner.enqueue(workbook);
+            testRunner.run();
+
+            assertEquals(2, testRunner.getCounterValue(ExcelToCsv.CACHE_MISSES_COUNTER).longValue());
+            assertTrue(testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS).get(0).getContent().startsWith("row 0;0"));
+        } finally {
+            try (Stream<Path> paths = Files.list(cacheDirectory)) {
+                for (Path path : (Iterable<Path>) paths::iterator) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(cacheDirectory);
+        }
+    }
+
+    @Test
+    public void testConversionCacheEviction() throws IOException {
+        Path cacheDirectory = Files.createTempDirectory("conversion-cache");
+        try {
+            ConversionCache cache = new ConversionCache(cacheDirectory, 10, 60000, "");
+            for (String key : new String[]{"a", "b", "c"}) {
+                Path entryFile = cache.createTempFile();
+                Files.write(entryFile, "12345".getBytes(StandardCharsets.UTF_8));
+                cache.put(key, entryFile);
+                if (key.equals("b")) {
+                    cache.open("a").close();
+                }
+            }
+
+            assertEquals(2, cache.getEntryCount());
+            assertEquals(10, cache.getSize());
+            assertNull(cache.open("b"));
+            cache.open("a").close();
+            cache.open("c").close();
+        } finally {
+            try (Stream<Path> paths = Files.list(cacheDirectory)) {
+                for (Path path : (Iterable<Path>) paths::iterator) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(cacheDirectory);
+        }
+    }
+
+    @Test
+    public void testMemoryBudget() throws IOException {
+        byte[] workbook = createWorkbook(2, 50);
+        WorkbookMemoryEstimate estimate = WorkbookMemoryEstimate.of(workbook.length, false, false);
+        WorkbookMemoryEstimate streamingEstimate = WorkbookMemoryEstimate.of(workbook.length, false, true);
+        assertTrue(estimate.getMemory() > streamingEstimate.getMemory());
+        assertEquals(streamingEstimate.getLowMemory(), estimate.getLowMemory());
+        File workbookFile = getResource("one-sheet-no-formula-2007.xlsx").toFile();
+        WorkbookMemoryEstimate fileEstimate = WorkbookMemoryEstimate.of(workbookFile, false);
+        WorkbookMemoryEstimate streamingFileEstimate = WorkbookMemoryEstimate.of(workbookFile, true);
+        assertTrue(fileEstimate.getMemory() > streamingFileEstimate.getMemory());
+        assertEquals(streamingFileEstimate.getMemory(), streamingFileEstimate.getLowMemory());
+
+        MemoryBudget budget = new MemoryBudget(100);
+        assertTrue(budget.tryAcquire(150));
+        assertFalse(budget.tryAcquire(1));
+        budget.release(150);
+        assertTrue(budget.tryAcquire(60));
+        assertTrue(budget.tryAcquire(40));
+        assertFalse(budget.tryAcquire(1));
+        assertEquals(100, budget.getUsed());
+
+        // a workbook larger than the budget is still converted when no other one is
+        testRunner.setProperty(ExcelToCsv.MEMORY_BUDGET, "1 B");
+        testRunner.setProperty(ExcelToCsv.WRITE_METRICS_ATTRIBUTES, "true");
+        testRunner.enqueue(workbook);
+        testRunner.run();
+
+        testRunner.assertTransferCount(ExcelToCsv.SUCCESS, 2);
+        MockFlowFile original = testRunner.getFlowFilesForRelationship(ExcelToCsv.ORIGINAL).get(0);
+        assertTrue(Long.parseLong(original.getAttribute(ExcelToCsv.MEMORY_ESTIMATE_ATT)) > 0);
+        original.assertAttributeEquals(ExcelToCsv.MEMORY_BUDGET_USED_ATT, original.getAttribute(ExcelToCsv.MEMORY_ESTIMATE_ATT));
+
+        // a workbook spilled to a temporary file is estimated from its zip entries
+        testRunner.clearTransferState();
+        testRunner.setProperty(ExcelToCsv.SPILL_THRESHOLD, "1 B");
+        testRunner.enqueue(workbook);
+        testRunner.run();
+
+        testRunner.assertTransferCount(ExcelToCsv.SUCCESS, 2);
+        original = testRunner.getFlowFilesForRelationship(ExcelToCsv.ORIGINAL).get(0);
+        assertTrue(Long.parseLong(original.getAttribute(ExcelToCsv.MEMORY_ESTIMATE_ATT)) > 0);
+    }
+
+    @Test
+    public void testMemoryBudgetDefersWorkbook() throws IOException {
+        testRunner.setProperty(ExcelToCsv.MEMORY_BUDGET, "1 B");
+        testRunner.run(1, false, true);
+        MemoryBudget budget = ((ExcelToCsv) testRunner.getProcessor()).getMemoryBudget();
+        // another workbook is being converted
+        assertTrue(budget.tryAcquire(0));
+
+        testRunner.enqueue(createWorkbook(2, 50));
+        testRunner.run(1, false, false);
+
+        testRunner.assertTransferCount(ExcelToCsv.SUCCESS, 0);
+        testRunner.assertTransferCount(ExcelToCsv.ORIGINAL, 0);
+        testRunner.assertPenalizeCount(1);
+        testRunner.assertQueueNotEmpty();
+        assertEquals(1, testRunner.getCounterValue(ExcelToCsv.MEMORY_DEFERRED_COUNTER).longValue());
+
+        budget.release(0);
+        testRunner.run(1, true, false);
+
+        testRunner.assertTransferCount(ExcelToCsv.SUCCESS, 2);
+        testRunner.assertQueueEmpty();
+        assertEquals(0, budget.getUsed());
+        assertEquals(0, testRunner.getCounterValue(ExcelToCsv.MEMORY_BUDGET_USED_COUNTER).longValue());
+    }
+
+    @Test
+    public void testLowMemoryRead() throws IOException {
+        byte[] workbook = createWorkbook(2, 50);
+        WorkbookMemoryEstimate estimate = WorkbookMemoryEstimate.of(workbook.length, false, false);
+        testRunner.setProperty(ExcelToCsv.STREAMING_READ, "false");
+        testRunner.setProperty(ExcelToCsv.MEMORY_BUDGET, (estimate.getMemory() - 1) + " B");
+        testRunner.setProperty(ExcelToCsv.OVER_BUDGET_STRATEGY, ExcelToCsv.OVER_BUDGET_LOW_MEMORY_READ);
+        testRunner.setProperty(ExcelToCsv.WRITE_METRICS_ATTRIBUTES, "true");
+        testRunner.run(1, false, true);
+        assertTrue(((ExcelToCsv) testRunner.getProcessor()).getMemoryBudget().tryAcquire(0));
+
+        testRunner.enqueue(workbook);
+        testRunner.run(1, false, false);
+
+        testRunner.assertTransferCount(ExcelToCsv.SUCCESS, 2);
+        testRunner.assertPenalizeCount(0);
+        assertEquals(1, testRunner.getCounterValue(ExcelToCsv.LOW_MEMORY_READS_COUNTER).longValue());
+        testRunner.getFlowFilesForRelationship(ExcelToCsv.ORIGINAL).get(0)
+                .assertAttributeEquals(ExcelToCsv.MEMORY_ESTIMATE_ATT, String.valueOf(estimate.getLowMemory()));
+        assertTrue(testRunner.getFlowFilesForRelationship(ExcelToCsv.SUCCESS).get(0).getContent().startsWith("row 0,0\nrow 1,0\n"));
+    }
+
+    @Test
+    public void testLowMemoryReadIsNotCached() throws IOException {
+        Path cacheDirectory = Files.createTempDirectory("conversion-cache");
+        try {
+            byte[] workbook = createWorkbook(2, 50);
+            WorkbookMemoryEstimate estimate = WorkbookMemoryEstimate.of(workbook.length, false, false);
+            testRunner.setProperty(ExcelToCsv.CACHE_DIRECTORY, cacheDirectory.toString());
+            testRunner.setProperty(ExcelToCsv.STREAMING_READ, "false");
+            testRunner.setProperty(ExcelToCsv.FORMULA_EVALUATION, ExcelToCsv.FORMULA_EVALUATE);
+            testRunner.setProperty(ExcelToCsv.MEMORY_BUDGET, (estimate.getMemory() - 1) + " B");
+            testRunner.setProperty(ExcelToCsv.OVER_BUDGET_STRATEGY, ExcelToCsv.OVER_BUDGET_LOW_MEMORY_READ);
+            testRunner.run(1, false, true);
+            MemoryBudget budget = ((ExcelToCsv) testRunner.getProcessor()).getMemoryBudget();
+            assertTrue(budget.tryAcquire(0));
+
+            testRunner.enqueue(workbook);
+            testRunner.run(1, false, false);
+            assertEquals(1, testRunner.getCounterValue(ExcelToCsv.LOW_MEMORY_READS_COUNTER).longValue());
+
+            // with the memory available, the workbook is converted again rather than replayed from the streaming read
+            budget.release(0);
+            testRunner.enqueue(workbook);
+            testRunner.run(1, false, false);
+            assertEquals(1, testRunner.getCounterValue(ExcelToCsv.LOW_MEMORY_READS_COUNTER).longValue());
+            assertEquals(2, testRunner.getCounterValue(ExcelToCsv.CACHE_MISSES_COUNTER).longValue());
+            assertNull(testRunner.getCounterValue(ExcelToCsv.CACHE_HITS_COUNTER));
+
+            testRunner.enqueue(workbook);
+            testRunner.run(1, true, false);
+            assertEquals(1, testRunner.getCounterValue(ExcelToCsv.CACHE_HITS_COUNTER).longValue());
+            testRunner.assertTransferCount(ExcelToCsv.SUCCESS, 6);
+        } finally {
+            try (Stream<Path> paths = Files.list(cacheDirectory)) {
+                for (Path path : (Iterable<Path>) paths::iterator) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(cacheDirectory);
+        }
+    }
+
+    static byte[] createWorkbook(int sheetCount, int rowCount) throws IOException {
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            for (int i = 0; i < sheetCount; i++) {
+                Sheet sheet = workbook.createSheet("sheet" + i);
+                for (int j = 0; j < rowCount; j++) {
+                    Row row = sheet.createRow(j);
+                    row.createCell(0).setCellValue("row " + j);
+                    row.createCell(1).setCellValue(i * j);
+                }
+            }
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            workbook.write(outputStream);
+            return outputStream.toByteArray();
+        }
+    }
 
+    private Path getResource(String fileName) {
+        return Paths.get(Objects.requireNonNull(getClass().getClassLoader().getResource(fileName)).getPath());
     }
 }
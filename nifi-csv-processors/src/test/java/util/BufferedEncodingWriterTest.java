@@ -0,0 +1,48 @@
+package util;
+
+import com.ifi.util.BufferedEncodingWriter;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class BufferedEncodingWriterTest {
+
+    @Test
+    public void should_encode_text_larger_than_buffer() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            builder.append("row ").append(i).append(",\u00e9\ud83d\ude00\n");
+        }
+        String text = builder.toString();
+        BufferedEncodingWriter writer = new BufferedEncodingWriter(StandardCharsets.UTF_8, 7);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        writer.reset(outputStream);
+        writer.write(text);
+        writer.close();
+
+        assertEquals(text, new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void should_reuse_buffers_for_next_output() throws IOException {
+        BufferedEncodingWriter writer = new BufferedEncodingWriter(StandardCharsets.UTF_8);
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+
+        writer.reset(first);
+        writer.write("first");
+        writer.close();
+        writer.reset(second);
+        writer.write('s');
+        writer.write("econd".toCharArray());
+        writer.close();
+
+        assertEquals("first", new String(first.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals("second", new String(second.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
@@ -2,22 +2,50 @@ package util;
 
 import com.ifi.util.CSVConverter;
 import com.ifi.util.CSVConverterImp;
+import com.ifi.util.CellProjection;
+import com.ifi.util.ConversionContext;
+import com.ifi.util.EscapeChar;
+import com.ifi.util.FormulaEvaluation;
+import com.ifi.util.SheetOutput;
+import com.ifi.util.SheetSelector;
+import com.ifi.util.ValueFormat;
 import com.ifi.util.exception.InvalidDocumentException;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFCell;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.*;
 
 public class CSVConverterTest {
     private CSVConverter converter;
+    private final Map<String, Integer> rowCounts = new LinkedHashMap<>();
     private static final File hssfWorkBookFile;
     private static final File xssfWorkBookFile;
 
@@ -29,6 +57,9 @@ public class CSVConverterTest {
 
     }
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Before
     public void setUp() {
         converter = new CSVConverterImp();
@@ -104,4 +135,363 @@ public class CSVConverterTest {
             exception.printStackTrace();
         }
     }
+
+    @Test
+    public void should_stream_xssf_to_same_csv_as_workbook() throws IOException, InvalidDocumentException {
+        assertStreamedAsWorkbook(xssfWorkBookFile);
+    }
+
+    @Test
+    public void should_stream_hssf_to_same_csv_as_workbook() throws IOException, InvalidDocumentException {
+        assertStreamedAsWorkbook(hssfWorkBookFile);
+    }
+
+    @Test
+    public void should_stream_missing_rows_and_cells_as_workbook() throws IOException, InvalidDocumentException {
+        for (Workbook workbook : new Workbook[]{new HSSFWorkbook(), new XSSFWorkbook()}) {
+            Sheet first = workbook.createSheet("first");
+            first.createRow(1).createCell(2).setCellValue("a,b");
+            first.getRow(1).createCell(4).setCellValue(true);
+            first.createRow(2).createCell(0).setCellValue(1.5);
+            first.getRow(2).createCell(3);
+            first.createRow(5).createCell(1).setCellValue("\"quoted\"");
+            workbook.createSheet("second").createRow(0).createCell(0).setCellValue("second");
+
+            File file = temporaryFolder.newFile();
+            try (FileOutputStream outputStream = new FileOutputStream(file)) {
+                workbook.write(outputStream);
+            }
+            assertStreamedAsWorkbook(file);
+        }
+    }
+
+    @Test
+    public void should_stream_requested_sheets_in_requested_order() throws IOException, InvalidDocumentException {
+        for (Workbook workbook : new Workbook[]{new HSSFWorkbook(), new XSSFWorkbook()}) {
+            workbook.createSheet("first").createRow(0).createCell(0).setCellValue("first");
+            workbook.createSheet("second").createRow(0).createCell(0).setCellValue("second");
+            workbook.createSheet("third").createRow(0).createCell(0).setCellValue("third");
+
+            File file = temporaryFolder.newFile();
+            try (FileOutputStream outputStream = new FileOutputStream(file)) {
+                workbook.write(outputStream);
+            }
+            Map<String, String> result = streamToCSV(file, new String[]{"THIRD", "missing-sheet", "first"});
+
+            assertArrayEquals(new String[]{"third", "first"}, result.keySet().toArray());
+            assertEquals("third\n", result.get("third"));
+            assertEquals("first\n", result.get("first"));
+        }
+    }
+
+    @Test
+    public void should_stream_sheets_in_parallel_as_sequentially() throws IOException, InvalidDocumentException {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (Workbook workbook : new Workbook[]{new HSSFWorkbook(), new XSSFWorkbook()}) {
+                for (int i = 0; i < 8; i++) {
+                    Sheet sheet = workbook.createSheet("sheet" + i);
+                    for (int j = 0; j < 200 * (8 - i); j++) {
+                        sheet.createRow(j).createCell(j % 3).setCellValue(i * j);
+                    }
+                }
+                File file = temporaryFolder.newFile();
+                try (FileOutputStream outputStream = new FileOutputStream(file)) {
+                    workbook.write(outputStream);
+                }
+                Map<String, String> sequential = streamToCSV(file, null);
+                Map<String, Integer> sequentialRowCounts = new LinkedHashMap<>(rowCounts);
+                Map<String, String> parallel = streamToCSV(file, null, executor);
+
+                assertArrayEquals(sequential.keySet().toArray(), parallel.keySet().toArray());
+                assertEquals(sequential, parallel);
+                assertEquals(sequentialRowCounts, rowCounts);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void should_bound_sheets_converted_ahead() throws IOException, InvalidDocumentException {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            for (int i = 0; i < 12; i++) {
+                Sheet sheet = workbook.createSheet("sheet" + i);
+                for (int j = 0; j < 300; j++) {
+                    sheet.createRow(j).createCell(0).setCellValue(i * j);
+                }
+            }
+            File file = temporaryFolder.newFile();
+            try (FileOutputStream outputStream = new FileOutputStream(file)) {
+                workbook.write(outputStream);
+            }
+            Map<String, String> sequential = streamToCSV(file, null);
+
+            converter = new CSVConverterImp.Builder().sheetParallelism(3).build();
+            AtomicInteger submitted = new AtomicInteger();
+            AtomicInteger maxAhead = new AtomicInteger();
+            Map<String, StringWriter> writers = new LinkedHashMap<>();
+            converter.toCSVFormat(new FileInputStream(file), SheetSelector.ALL, new SheetOutput() {
+                @Override
+                public Writer startSheet(String sheetName) {
+                    // sheets handed to the executor and not written yet, the current one included
+                    maxAhead.accumulateAndGet(submitted.get() - writers.size(), Math::max);
+                    StringWriter writer = new StringWriter();
+                    writers.put(sheetName, writer);
+                    return writer;
+                }
+
+                @Override
+                public Writer nextPart(String sheetName) {
+                    return writers.get(sheetName);
+                }
+
+                @Override
+                public void endSheet(String sheetName, int rowCount) {
+                }
+            }, task -> {
+                submitted.incrementAndGet();
+                executor.execute(task);
+            });
+
+            assertTrue(maxAhead.get() <= 2);
+            assertEquals(11, submitted.get());
+            for (Map.Entry<String, String> sheet : sequential.entrySet()) {
+                assertEquals(sheet.getValue(), writers.get(sheet.getKey()).toString());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void should_convert_workbooks_concurrently_with_shared_converter() throws Throwable {
+        Workbook hssfWorkbook = converter.createWorkbook(new FileInputStream(hssfWorkBookFile));
+        Workbook xssfWorkbook = converter.createWorkbook(new FileInputStream(xssfWorkBookFile));
+        String expectedHssf = converter.toCSVFormat(hssfWorkbook.getSheetAt(0));
+        String expectedXssf = converter.toCSVFormat(xssfWorkbook.getSheetAt(0));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                File file = i % 2 == 0 ? hssfWorkBookFile : xssfWorkBookFile;
+                String expected = i % 2 == 0 ? expectedHssf : expectedXssf;
+                results.add(executor.submit(() -> {
+                    Workbook workbook;
+                    try {
+                        workbook = converter.createWorkbook(new FileInputStream(file));
+                    } catch (InvalidDocumentException exception) {
+                        return false;
+                    }
+                    ConversionContext context = converter.createContext(workbook);
+                    StringWriter writer = new StringWriter();
+                    converter.toCSVFormat(workbook.getSheetAt(0), writer, context);
+                    return expected.equals(writer.toString());
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void should_convert_formulas_with_formula_evaluation() throws IOException {
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            Row row = workbook.createSheet("formulas").createRow(0);
+            row.createCell(0).setCellValue(2);
+            XSSFCell staleResult = (XSSFCell) row.createCell(1);
+            staleResult.setCellFormula("A1*2");
+            staleResult.getCTCell().setV("99");
+            XSSFCell noResult = (XSSFCell) row.createCell(2);
+            noResult.setCellFormula("A1*3");
+            noResult.getCTCell().unsetV();
+
+            assertFormulaConversion(workbook, FormulaEvaluation.CACHED, "2,99,0\n", 0);
+            assertFormulaConversion(workbook, FormulaEvaluation.EVALUATE_IF_NO_CACHED_VALUE, "2,99,6\n", 1);
+            assertFormulaConversion(workbook, FormulaEvaluation.EVALUATE, "2,4,6\n", 2);
+        }
+    }
+
+    private void assertFormulaConversion(Workbook workbook, FormulaEvaluation formulaEvaluation, String expected, long evaluated)
+            throws IOException {
+        CSVConverter converter = new CSVConverterImp.Builder().formulaEvaluation(formulaEvaluation).build();
+        ConversionContext context = converter.createContext(workbook);
+        StringWriter writer = new StringWriter();
+
+        converter.toCSVFormat(workbook.getSheetAt(0), writer, context);
+
+        assertEquals(expected, writer.toString());
+        assertEquals(evaluated, context.getFormulasEvaluated());
+    }
+
+    @Test
+    public void should_write_raw_values() throws IOException, InvalidDocumentException {
+        converter = new CSVConverterImp.Builder().valueFormat(ValueFormat.RAW).build();
+        for (Workbook workbook : new Workbook[]{new HSSFWorkbook(), new XSSFWorkbook()}) {
+            Row row = createFormattedRow(workbook);
+
+            assertEquals("1234.5,2020-01-31,2020-01-31T12:30:00,12:30:00,true,0.25,text\n",
+                    converter.toCSVFormat(row.getSheet()));
+            assertStreamedAsWorkbook(writeToFile(workbook));
+        }
+    }
+
+    @Test
+    public void should_convert_projected_range_and_columns() throws IOException, InvalidDocumentException {
+        assertProjection(new CellProjection.Builder().rows(0, 3).columnRange(0, 2).skipBlankRows(true).build(),
+                "id,name,amount\n1,a,10\n3,c,30\n");
+        assertProjection(new CellProjection.Builder().columns(1, 1).columns(3, 3).rows(1, 4).build(),
+                "a,\n\nc,x\nd,\n");
+        assertProjection(new CellProjection.Builder().columnNames("Amount", " ID").trimTrailingEmptyColumns(true).build(),
+                "id,amount\n1,10\n\n3,30\n4\n\n\n\n\n\n");
+    }
+
+    private void assertProjection(CellProjection projection, String expected) throws IOException, InvalidDocumentException {
+        converter = new CSVConverterImp.Builder().projection(projection).build();
+        for (Workbook workbook : new Workbook[]{new HSSFWorkbook(), new XSSFWorkbook()}) {
+            Sheet sheet = workbook.createSheet("first");
+            Row header = sheet.createRow(0);
+            String[] names = {"id", "name", "amount", "note"};
+            for (int i = 0; i < names.length; i++) {
+                header.createCell(i).setCellValue(names[i]);
+            }
+            Object[][] rows = {{1, "a", 10, null}, null, {3, "c", 30, "x"}, {4, "d"}};
+            for (int j = 0; j < rows.length; j++) {
+                if (rows[j] == null) {
+                    continue;
+                }
+                Row row = sheet.createRow(j + 1);
+                for (int i = 0; i < rows[j].length; i++) {
+                    if (rows[j][i] instanceof Integer) {
+                        row.createCell(i).setCellValue((Integer) rows[j][i]);
+                    } else if (rows[j][i] != null) {
+                        row.createCell(i).setCellValue((String) rows[j][i]);
+                    }
+                }
+            }
+            sheet.getRow(1).createCell(3);
+            sheet.getRow(4).createCell(4);
+            sheet.createRow(9).createCell(5).setCellValue("far");
+
+            assertEquals(expected, converter.toCSVFormat(sheet));
+            assertEquals(expected, streamToCSV(writeToFile(workbook), null).get("first"));
+        }
+    }
+
+    @Test
+    public void should_format_values_as_data_formatter() throws IOException {
+        DataFormatter formatter = new DataFormatter();
+        converter = new CSVConverterImp(";", EscapeChar.EXCEL_STYLE_ESCAPING);
+        for (Workbook workbook : new Workbook[]{new HSSFWorkbook(), new XSSFWorkbook()}) {
+            Row row = createFormattedRow(workbook);
+            StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < row.getLastCellNum(); i++) {
+                expected.append(i > 0 ? ";" : "").append(formatter.formatCellValue(row.getCell(i)));
+            }
+
+            assertTrue(expected.toString().startsWith("1,234.50;2020-01-31;2020-01-31;12:30;TRUE;25%"));
+            assertEquals(expected.append('\n').toString(), converter.toCSVFormat(row.getSheet()));
+        }
+    }
+
+    @Test
+    public void should_write_numbers_without_format_like_general_format() throws IOException {
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            Row row = workbook.createSheet("values").createRow(0);
+            row.createCell(0).setCellValue(1);
+            row.getCell(0).setCellStyle(createStyle(workbook, " "));
+            row.createCell(1).setCellValue(2.5);
+            row.getCell(1).setCellStyle(createStyle(workbook, " "));
+
+            assertEquals("1,2.5\n", converter.toCSVFormat(row.getSheet()));
+        }
+    }
+
+    private Row createFormattedRow(Workbook workbook) {
+        Row row = workbook.createSheet("values").createRow(0);
+        row.createCell(0).setCellValue(1234.5);
+        row.getCell(0).setCellStyle(createStyle(workbook, "#,##0.00"));
+        CellStyle dateStyle = createStyle(workbook, "yyyy-mm-dd");
+        row.createCell(1).setCellValue(LocalDateTime.of(2020, 1, 31, 0, 0));
+        row.getCell(1).setCellStyle(dateStyle);
+        row.createCell(2).setCellValue(LocalDateTime.of(2020, 1, 31, 12, 30));
+        row.getCell(2).setCellStyle(dateStyle);
+        row.createCell(3).setCellValue(0.5 + 1.0 / 48);
+        row.getCell(3).setCellStyle(createStyle(workbook, "h:mm"));
+        row.createCell(4).setCellValue(true);
+        row.createCell(5).setCellValue(0.25);
+        row.getCell(5).setCellStyle(createStyle(workbook, "0%"));
+        row.createCell(6).setCellValue("text");
+        return row;
+    }
+
+    private CellStyle createStyle(Workbook workbook, String format) {
+        CellStyle style = workbook.createCellStyle();
+        style.setDataFormat(workbook.createDataFormat().getFormat(format));
+        return style;
+    }
+
+    private File writeToFile(Workbook workbook) throws IOException {
+        File file = temporaryFolder.newFile();
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            workbook.write(outputStream);
+        }
+        return file;
+    }
+
+    @Test
+    public void should_not_stream_as_work_book() {
+        String fileName = "not-a-workbook.xls";
+        File file = new File(Objects.requireNonNull(getClass().getClassLoader().getResource(fileName)).getFile());
+
+        assertThrows(InvalidDocumentException.class, () -> streamToCSV(file, null));
+    }
+
+    private void assertStreamedAsWorkbook(File file) throws IOException, InvalidDocumentException {
+        Workbook workbook = converter.createWorkbook(new FileInputStream(file));
+        Map<String, String> result = streamToCSV(file, null);
+
+        assertEquals(workbook.getNumberOfSheets(), result.size());
+        for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
+            Sheet sheet = workbook.getSheetAt(i);
+            assertEquals(converter.toCSVFormat(sheet), result.get(sheet.getSheetName()));
+            assertEquals(sheet.getPhysicalNumberOfRows(), (int) rowCounts.get(sheet.getSheetName()));
+        }
+    }
+
+    private Map<String, String> streamToCSV(File file, String[] sheetNames) throws IOException, InvalidDocumentException {
+        return streamToCSV(file, sheetNames, null);
+    }
+
+    private Map<String, String> streamToCSV(File file, String[] sheetNames, Executor executor)
+            throws IOException, InvalidDocumentException {
+        Map<String, StringWriter> writers = new LinkedHashMap<>();
+        rowCounts.clear();
+        converter.toCSVFormat(new FileInputStream(file), sheetNames, new SheetOutput() {
+            @Override
+            public Writer startSheet(String sheetName) {
+                StringWriter writer = new StringWriter();
+                writers.put(sheetName, writer);
+                return writer;
+            }
+
+            @Override
+            public Writer nextPart(String sheetName) {
+                return writers.get(sheetName);
+            }
+
+            @Override
+            public void endSheet(String sheetName, int rowCount) {
+                rowCounts.put(sheetName, rowCount);
+            }
+        }, executor);
+        Map<String, String> result = new LinkedHashMap<>();
+        writers.forEach((sheetName, writer) -> result.put(sheetName, writer.toString()));
+        return result;
+    }
 }
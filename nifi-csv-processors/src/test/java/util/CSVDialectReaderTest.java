@@ -0,0 +1,88 @@
+package util;
+
+import com.ifi.util.CSVDialect;
+import com.ifi.util.CSVDialectReader;
+import com.ifi.util.CSVDialectWriter;
+import com.ifi.util.EscapeChar;
+import com.ifi.util.QuotePolicy;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class CSVDialectReaderTest {
+
+    @Test
+    public void should_read_what_was_written_excel_style() throws IOException {
+        CSVDialect minimal = new CSVDialect.Builder().build();
+        CSVDialect all = new CSVDialect.Builder().quotePolicy(QuotePolicy.ALL).recordSeparator(CSVDialect.CRLF).build();
+        List<String> record = Arrays.asList("plain", "a,b", "say \"hi\"", "two\nlines", "cr\r", "");
+
+        assertEquals(Arrays.asList(record, record), read(minimal, write(minimal, record, record)));
+        assertEquals(Arrays.asList(record, record), read(all, write(all, record, record)));
+    }
+
+    @Test
+    public void should_read_what_was_written_unix_style() throws IOException {
+        CSVDialect minimal = new CSVDialect.Builder().escapeChar(EscapeChar.UNIX_STYLE_ESCAPING).build();
+        CSVDialect all = new CSVDialect.Builder().escapeChar(EscapeChar.UNIX_STYLE_ESCAPING).quotePolicy(QuotePolicy.ALL).build();
+        List<String> record = Arrays.asList("a,b", "c\nd", "e\\f", "say \"hi\"", "");
+        List<String> quoted = Arrays.asList("\"g\"", "");
+
+        assertEquals(Arrays.asList(record, record), read(minimal, write(minimal, record, record)));
+        assertEquals(Arrays.asList(record, quoted), read(all, write(all, record, quoted)));
+    }
+
+    @Test
+    public void should_read_back_leading_quote_unix_style() throws IOException {
+        CSVDialect minimal = new CSVDialect.Builder().escapeChar(EscapeChar.UNIX_STYLE_ESCAPING).build();
+        List<String> record = Arrays.asList("\"abc,def", "x\"", "\"");
+        List<String> next = Arrays.asList("next", "record");
+
+        assertEquals(Arrays.asList(record, next), read(minimal, write(minimal, record, next)));
+    }
+
+    @Test
+    public void should_match_multi_character_delimiter() throws IOException {
+        CSVDialect dialect = new CSVDialect.Builder().delimiter("::").build();
+
+        assertEquals(Arrays.asList(Arrays.asList("a:b", "c::d", "e:")), read(dialect, "a:b::\"c::d\"::e:\n"));
+    }
+
+    @Test
+    public void should_accept_any_line_break_and_missing_last_line_break() throws IOException {
+        CSVDialect dialect = new CSVDialect.Builder().build();
+
+        assertEquals(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList(""), Arrays.asList("c"), Arrays.asList("d", "")),
+                read(dialect, "a,b\r\n\rc\nd,"));
+    }
+
+    @SafeVarargs
+    private final String write(CSVDialect dialect, List<String>... records) throws IOException {
+        StringWriter writer = new StringWriter();
+        CSVDialectWriter csvWriter = new CSVDialectWriter(dialect, writer);
+        for (List<String> record : records) {
+            for (String field : record) {
+                csvWriter.writeField(field);
+            }
+            csvWriter.endRecord();
+        }
+        return writer.toString();
+    }
+
+    private List<List<String>> read(CSVDialect dialect, String csv) throws IOException {
+        CSVDialectReader reader = new CSVDialectReader(dialect, new StringReader(csv));
+        List<List<String>> records = new ArrayList<>();
+        List<String> fields = new ArrayList<>();
+        while (reader.readRecord(fields)) {
+            records.add(new ArrayList<>(fields));
+        }
+        return records;
+    }
+}
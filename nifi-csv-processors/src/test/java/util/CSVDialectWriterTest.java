@@ -0,0 +1,82 @@
+package util;
+
+import com.ifi.util.CSVDialect;
+import com.ifi.util.CSVDialectWriter;
+import com.ifi.util.EscapeChar;
+import com.ifi.util.QuotePolicy;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+
+public class CSVDialectWriterTest {
+
+    @Test
+    public void should_quote_fields_with_special_characters_excel_style() throws IOException {
+        CSVDialect dialect = new CSVDialect.Builder().build();
+
+        assertEquals("plain,\"a,b\",\"say \"\"hi\"\"\",\"two\nlines\",\"cr\r\",,\n",
+                write(dialect, "plain", "a,b", "say \"hi\"", "two\nlines", "cr\r", null, ""));
+    }
+
+    @Test
+    public void should_not_treat_delimiter_as_regex() throws IOException {
+        CSVDialect pipe = new CSVDialect.Builder().delimiter("|").escapeChar(EscapeChar.UNIX_STYLE_ESCAPING).build();
+        CSVDialect dot = new CSVDialect.Builder().delimiter(".").build();
+
+        assertEquals("a\\|b|c\n", write(pipe, "a|b", "c"));
+        assertEquals("\"1.5\".x\n", write(dot, "1.5", "x"));
+    }
+
+    @Test
+    public void should_match_multi_character_delimiter() throws IOException {
+        CSVDialect dialect = new CSVDialect.Builder().delimiter("::").build();
+
+        assertEquals("a:b::\"c::d\"\n", write(dialect, "a:b", "c::d"));
+    }
+
+    @Test
+    public void should_apply_quote_policy() throws IOException {
+        CSVDialect all = new CSVDialect.Builder().quotePolicy(QuotePolicy.ALL).build();
+        CSVDialect nonNumeric = new CSVDialect.Builder().quotePolicy(QuotePolicy.NON_NUMERIC).build();
+
+        assertEquals("\"1\",\"a\",,\"\"\n", write(all, "1", "a", null, ""));
+        assertEquals("-1.5,2E-3,\"1.2.3\",\"a\",,\"\"\n", write(nonNumeric, "-1.5", "2E-3", "1.2.3", "a", null, ""));
+    }
+
+    @Test
+    public void should_escape_unix_style() throws IOException {
+        CSVDialect minimal = new CSVDialect.Builder().escapeChar(EscapeChar.UNIX_STYLE_ESCAPING).build();
+        CSVDialect all = new CSVDialect.Builder().escapeChar(EscapeChar.UNIX_STYLE_ESCAPING).quotePolicy(QuotePolicy.ALL).build();
+
+        assertEquals("a\\,b,c\\\nd,e\\\\f,\\\"g\"\n", write(minimal, "a,b", "c\nd", "e\\f", "\"g\""));
+        assertEquals("\"a\\,b\",\"\\\"g\\\"\"\n", write(all, "a,b", "\"g\""));
+    }
+
+    @Test
+    public void should_end_records_with_separator() throws IOException {
+        CSVDialect dialect = new CSVDialect.Builder().recordSeparator(CSVDialect.CRLF).build();
+        StringWriter writer = new StringWriter();
+        CSVDialectWriter csvWriter = new CSVDialectWriter(dialect, writer);
+
+        csvWriter.writeField("a");
+        csvWriter.writeField("b");
+        csvWriter.endRecord();
+        csvWriter.writeField("c");
+        csvWriter.endRecord();
+
+        assertEquals("a,b\r\nc\r\n", writer.toString());
+    }
+
+    private String write(CSVDialect dialect, String... fields) throws IOException {
+        StringWriter writer = new StringWriter();
+        CSVDialectWriter csvWriter = new CSVDialectWriter(dialect, writer);
+        for (String field : fields) {
+            csvWriter.writeField(field);
+        }
+        csvWriter.endRecord();
+        return writer.toString();
+    }
+}